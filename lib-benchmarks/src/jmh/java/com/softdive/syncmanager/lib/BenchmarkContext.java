@@ -0,0 +1,163 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Just enough of a {@link android.content.Context} to back the lib's preferences with an in-memory
+ * map, so benchmarks measure the lib and not disk I/O.
+ */
+class BenchmarkContext extends ContextWrapper {
+    private final Map<String, SharedPreferences> prefs = new HashMap<>();
+
+    BenchmarkContext() {
+        super(null);
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.softdive.syncmanager.benchmarks";
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences result = prefs.get(name);
+        if (result == null) {
+            result = new MapSharedPreferences();
+            prefs.put(name, result);
+        }
+        return result;
+    }
+
+    private static class MapSharedPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MapEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class MapEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private final Set<String> removals = new HashSet<>();
+            private boolean clear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                changes.put(key, values == null ? null : new HashSet<>(values));
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                removals.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                if (clear) values.clear();
+                for (String key : removals) {
+                    values.remove(key);
+                }
+                values.putAll(changes);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigBenchmark {
+    SyncConfigStore store;
+
+    @Setup
+    public void setup() {
+        store = new SyncConfigStore(new BenchmarkContext(), "com.example.BenchmarkSync");
+        store.editDefault(Arrays.asList(SyncManager.Edit.every(1, SyncManager.Config.HOURS)));
+        store.edit(Arrays.asList(SyncManager.Edit.range(10, SyncManager.Config.MINUTES)));
+    }
+
+    /**
+     * Reads every value the scheduler needs from the current snapshot.
+     */
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        SyncManager.Config config = store.get();
+        blackhole.consume(config.enabled());
+        blackhole.consume(config.every());
+        blackhole.consume(config.range());
+        blackhole.consume(config.concurrency());
+    }
+}
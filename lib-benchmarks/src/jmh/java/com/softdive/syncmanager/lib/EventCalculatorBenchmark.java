@@ -0,0 +1,40 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventCalculatorBenchmark {
+    @Param({"10000", "3600000", "86400000"})
+    long interval;
+
+    long currentTime;
+
+    @Setup
+    public void setup() {
+        currentTime = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long getNextEvent() {
+        // Step the time so the result can't be constant-folded.
+        currentTime += 1;
+        return EventCalculator.getNextEvent(currentTime, interval);
+    }
+
+    @Benchmark
+    public long getNextSyncTime() {
+        currentTime += 1;
+        return EventCalculator.getNextSyncTime(currentTime, interval, SyncManager.Config.DEFAULT_RANGE, 0x5DEECE66DL);
+    }
+}
@@ -0,0 +1,23 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MathUtilBenchmark {
+    long seed = 0x5DEECE66DL;
+
+    @Benchmark
+    public long randomInRange() {
+        seed = seed * 0x5DEECE66DL + 0xBL;
+        return MathUtil.randomInRange(seed, 0, SyncManager.Config.DEFAULT_RANGE);
+    }
+}
@@ -0,0 +1,69 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full scheduling pass, as done by {@link SyncService} on start or power change: every listener's
+ * next sync time is computed from its config and handed to the batcher, then the batch alarm time is
+ * found and the first batch is taken.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulingPassBenchmark {
+    private static final long SEED = 0x5DEECE66DL;
+
+    @Param({"10", "100", "1000"})
+    int listeners;
+
+    String[] names;
+    SyncConfigStore[] configs;
+    SyncBatcher batcher;
+
+    @Setup
+    public void setup() {
+        BenchmarkContext context = new BenchmarkContext();
+        long[] intervals = {
+                15 * SyncManager.Config.MINUTES,
+                SyncManager.Config.HOURS,
+                6 * SyncManager.Config.HOURS,
+                SyncManager.Config.DAYS
+        };
+
+        names = new String[listeners];
+        configs = new SyncConfigStore[listeners];
+        for (int i = 0; i < listeners; i++) {
+            names[i] = "com.example.Sync" + i;
+            configs[i] = new SyncConfigStore(context, names[i]);
+            configs[i].editDefault(Arrays.asList(SyncManager.Edit.every(intervals[i % intervals.length])));
+        }
+        batcher = new SyncBatcher(2 * SyncManager.Config.MINUTES);
+    }
+
+    @Benchmark
+    public List<String> schedule() {
+        long now = System.currentTimeMillis();
+        batcher.clear();
+        for (int i = 0; i < listeners; i++) {
+            SyncManager.Config config = configs[i].get();
+            if (!config.enabled()) continue;
+
+            long span = config.every();
+            if (span > 0) {
+                batcher.schedule(names[i], EventCalculator.getNextSyncTime(now, span, config.range(), SEED));
+            }
+        }
+        return batcher.takeDue(batcher.nextWakeTime());
+    }
+}
@@ -0,0 +1,28 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording happens on every sync, so it must stay allocation free. Check gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncMetricsBenchmark {
+    SyncMetrics metrics = new SyncMetrics();
+    long latency = 1;
+
+    @Benchmark
+    public void recordSync() {
+        latency = (latency * 31 + 7) & 0xFFFFF;
+        metrics.recordSync(latency, (latency & 1) == 0 ? SyncResult.success() : SyncResult.failure());
+        metrics.recordDrift(latency >> 4);
+    }
+}
@@ -0,0 +1,33 @@
+package com.softdive.syncmanager.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The trace is always on, so recording must stay allocation free and cheap under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncTraceBenchmark {
+    SyncTrace trace = new SyncTrace(SyncTrace.DEFAULT_CAPACITY);
+    String name = "com.example.CatalogSync";
+
+    @Benchmark
+    public void record() {
+        trace.record(SyncTrace.Event.SCHEDULED, name, 1234567890123L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        trace.record(SyncTrace.Event.SCHEDULED, name, 1234567890123L);
+    }
+}
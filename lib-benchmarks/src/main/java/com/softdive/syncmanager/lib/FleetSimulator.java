@@ -0,0 +1,264 @@
+package com.softdive.syncmanager.lib;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Simulates the requests a fleet of devices sends to the server for a given scheduling config, so
+ * changes to {@code every}, {@code range} or the retry policy can be compared before shipping them.
+ * Every device is scheduled with the library's own {@link EventCalculator}, {@link RetryPolicy} and
+ * {@link CircuitBreaker} logic, in simulated time.
+ *
+ * <p> Options are given as {@code key=value} arguments:
+ * <ul>
+ * <li>{@code devices} the number of devices, default 100000</li>
+ * <li>{@code days} how long to simulate, default 2</li>
+ * <li>{@code every}, {@code range} the listener's config, like in xml, default 1 hour and 5
+ * minutes</li>
+ * <li>{@code retry} the retry policy, like in xml, default exponential</li>
+ * <li>{@code retryDelay} like in xml, default half a second</li>
+ * <li>{@code circuitThreshold} like in xml, default 5</li>
+ * <li>{@code zones} comma-separated timezones devices are spread evenly over, default UTC</li>
+ * <li>{@code failureRate} the chance any request fails, default 0</li>
+ * <li>{@code outage} a window where every request fails, as hours since the start, like
+ * {@code 10-11.5}</li>
+ * <li>{@code legacySeed} true to give every device the same seed, like before each install got
+ * its own</li>
+ * <li>{@code out} a file to write the requests per second to as csv</li>
+ * </ul>
+ * </p>
+ */
+public class FleetSimulator {
+    private static final long SECOND = 1000;
+    private static final long HOUR = 60 * 60 * SECOND;
+    // A Monday, so simulations are reproducible.
+    private static final long START = 1767571200000L;
+
+    private final int devices;
+    private final long duration;
+    private final long every;
+    private final long range;
+    private final RetryPolicy retry;
+    private final long retryDelay;
+    private final int circuitThreshold;
+    private final TimeZone[] zones;
+    private final double failureRate;
+    private final long outageStart;
+    private final long outageEnd;
+    private final boolean legacySeed;
+
+    // Per device state, indexed by device.
+    private final long[] seeds;
+    private final int[] failures;
+    private final long[] lastDelay;
+
+    private final long[] requestsPerSecond;
+    private long requests;
+    private long failed;
+
+    FleetSimulator(Map<String, String> options) {
+        devices = Integer.parseInt(option(options, "devices", "100000"));
+        duration = Long.parseLong(option(options, "days", "2")) * 24 * HOUR;
+        every = SyncParser.parseUnitTimeSpan(option(options, "every", "1 hour"));
+        range = SyncParser.parseUnitTimeSpan(option(options, "range", "5 minutes"));
+        retry = RetryPolicy.fromKey(option(options, "retry", RetryPolicy.DEFAULT.key));
+        retryDelay = SyncParser.parseUnitTimeSpan(option(options, "retryDelay", String.valueOf(SyncManager.Config.DEFAULT_RETRY_DELAY)));
+        circuitThreshold = Integer.parseInt(option(options, "circuitThreshold", String.valueOf(SyncManager.Config.DEFAULT_CIRCUIT_THRESHOLD)));
+        String[] zoneIds = option(options, "zones", "UTC").split(",");
+        zones = new TimeZone[zoneIds.length];
+        for (int i = 0; i < zoneIds.length; i++) {
+            zones[i] = TimeZone.getTimeZone(zoneIds[i].trim());
+        }
+        failureRate = Double.parseDouble(option(options, "failureRate", "0"));
+        String outage = options.remove("outage");
+        if (outage != null) {
+            String[] window = outage.split("-");
+            outageStart = START + (long) (Double.parseDouble(window[0]) * HOUR);
+            outageEnd = START + (long) (Double.parseDouble(window[1]) * HOUR);
+        } else {
+            outageStart = outageEnd = 0;
+        }
+        legacySeed = Boolean.parseBoolean(option(options, "legacySeed", "false"));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+        if (every <= 0) {
+            throw new IllegalArgumentException("every must be positive to simulate periodic syncs");
+        }
+
+        seeds = new long[devices];
+        failures = new int[devices];
+        lastDelay = new long[devices];
+        requestsPerSecond = new long[(int) (duration / SECOND)];
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.remove(key);
+        return value != null ? value : defaultValue;
+    }
+
+    void run() {
+        Random random = new Random(42);
+        long legacy = new Random("android_id".hashCode()).nextLong();
+        for (int device = 0; device < devices; device++) {
+            seeds[device] = legacySeed ? legacy : random.nextLong();
+        }
+
+        // Devices don't affect each other, so each timezone is simulated on its own. This keeps
+        // EventCalculator's midnight cache on a single zone at a time, like on a real device.
+        for (int zone = 0; zone < zones.length; zone++) {
+            EventQueue queue = new EventQueue(devices);
+            for (int device = zone; device < devices; device += zones.length) {
+                queue.add(EventCalculator.getNextSyncTime(START, every, range, seeds[device], zones[zone]), device);
+            }
+
+            long end = START + duration;
+            while (!queue.isEmpty() && queue.peekTime() < end) {
+                long now = queue.peekTime();
+                int device = queue.poll();
+                queue.add(sync(device, now, random), device);
+            }
+        }
+    }
+
+    private TimeZone zone(int device) {
+        return zones[device % zones.length];
+    }
+
+    /**
+     * Sends a request for the device and returns when it syncs next, just like the service would.
+     */
+    private long sync(int device, long now, Random random) {
+        requests++;
+        requestsPerSecond[(int) ((now - START) / SECOND)]++;
+
+        boolean success = !(now >= outageStart && now < outageEnd) && random.nextDouble() >= failureRate;
+        if (success) {
+            failures[device] = 0;
+            lastDelay[device] = 0;
+            return EventCalculator.getNextSyncTime(now, every, range, seeds[device], zone(device));
+        }
+
+        failed++;
+        int failureCount = ++failures[device];
+        if (circuitThreshold > 0 && failureCount >= circuitThreshold) {
+            return now + CircuitBreaker.cooldown(every);
+        }
+        long delay = retry.retryDelay(failureCount, lastDelay[device], retryDelay, every, random);
+        lastDelay[device] = delay;
+        return retry.retryTime(now, delay, range, seeds[device], zone(device));
+    }
+
+    void report(PrintWriter out) {
+        long[] sorted = requestsPerSecond.clone();
+        Arrays.sort(sorted);
+        double mean = requests / (double) requestsPerSecond.length;
+        long peak = sorted[sorted.length - 1];
+
+        out.printf("devices=%d days=%d every=%dms range=%dms retry=%s circuitThreshold=%d zones=%d%n",
+                devices, duration / (24 * HOUR), every, range, retry.key, circuitThreshold, zones.length);
+        out.printf("requests=%d failed=%d%n", requests, failed);
+        out.printf("mean=%.2f rps peak=%d rps peak/mean=%.1f%n", mean, peak, peak / mean);
+        out.printf("p50=%d p90=%d p99=%d p99.9=%d p99.99=%d rps%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), percentile(sorted, 0.9999));
+        out.flush();
+    }
+
+    void writeSeries(PrintWriter out) {
+        out.println("second,requests");
+        for (int second = 0; second < requestsPerSecond.length; second++) {
+            out.print(second);
+            out.print(',');
+            out.println(requestsPerSecond[second]);
+        }
+        out.flush();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        String out = options.remove("out");
+
+        FleetSimulator simulator = new FleetSimulator(options);
+        simulator.run();
+        simulator.report(new PrintWriter(System.out));
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+                simulator.writeSeries(writer);
+            }
+        }
+    }
+
+    /**
+     * A min-heap of (time, device) pairs without boxing, since it holds every device at once.
+     */
+    private static final class EventQueue {
+        private final long[] times;
+        private final int[] devices;
+        private int size;
+
+        EventQueue(int capacity) {
+            times = new long[capacity];
+            devices = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peekTime() {
+            return times[0];
+        }
+
+        void add(long time, int device) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (times[parent] <= time) break;
+                times[i] = times[parent];
+                devices[i] = devices[parent];
+                i = parent;
+            }
+            times[i] = time;
+            devices[i] = device;
+        }
+
+        int poll() {
+            int result = devices[0];
+            size--;
+            long time = times[size];
+            int device = devices[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && times[child + 1] < times[child]) child++;
+                if (times[child] >= time) break;
+                times[i] = times[child];
+                devices[i] = devices[child];
+                i = child;
+            }
+            times[i] = time;
+            devices[i] = device;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.softdive.syncmanager.lib;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+/**
+ * Wakes the service with a single {@link AlarmManager} alarm, delivered to the {@link
+ * SyncAlarmReceiver}. The alarm only wakes the device while it's charging, and {@link
+ * SyncNetworkReceiver} and {@link SyncPowerReceiver} are enabled to watch the network and power.
+ */
+class AlarmBackend implements SchedulerBackend {
+    private final Context context;
+    private final SyncPreferences prefs;
+
+    AlarmBackend(Context context, SyncPreferences prefs) {
+        this.context = context;
+        this.prefs = prefs;
+    }
+
+    @Override
+    public void start() {
+        // The job waiting for the network is persisted, so it outlives a switch from the job
+        // scheduler and would keep waking the service.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobSchedulerBackend.cancelAll(context);
+        }
+        SyncPowerReceiver.enable(context);
+    }
+
+    @Override
+    public void stop() {
+        cancelAll(context);
+    }
+
+    @Override
+    public void setWakeUp(long time, long flex, boolean requiresUnmetered, boolean requiresCharging) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = getPendingIntent(context);
+        alarmManager.cancel(pendingIntent);
+        cancelLegacy(context, alarmManager);
+        int alarmType = prefs.isPowerConnected() ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC;
+        alarmManager.set(alarmType, time, pendingIntent);
+    }
+
+    @Override
+    public void cancelWakeUp() {
+        cancel(context);
+    }
+
+    @Override
+    public void waitForNetwork(boolean unmetered) {
+        // The receiver hears about every change, the service checks if the network will do.
+        SyncNetworkReceiver.enable(context);
+    }
+
+    /**
+     * Cancels the alarm, and stops watching the network and power. Used when switching to another
+     * backend.
+     */
+    static void cancelAll(Context context) {
+        cancel(context);
+        SyncNetworkReceiver.disable(context);
+        SyncPowerReceiver.disable(context);
+    }
+
+    private static void cancel(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = getPendingIntent(context);
+        alarmManager.cancel(pendingIntent);
+        pendingIntent.cancel();
+        cancelLegacy(context, alarmManager);
+    }
+
+    private static PendingIntent getPendingIntent(Context context) {
+        return PendingIntent.getBroadcast(context, 0, new Intent(context, SyncAlarmReceiver.class), 0);
+    }
+
+    // Alarms used to be delivered straight to the service, without a wake lock.
+    private static void cancelLegacy(Context context, AlarmManager alarmManager) {
+        PendingIntent legacy = PendingIntent.getService(context, 0, SyncService.getSyncBatchIntent(context), PendingIntent.FLAG_NO_CREATE);
+        if (legacy != null) {
+            alarmManager.cancel(legacy);
+            legacy.cancel();
+        }
+    }
+}
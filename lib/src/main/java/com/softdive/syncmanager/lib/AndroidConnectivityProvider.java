@@ -0,0 +1,59 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+/**
+ * A {@link ConnectivityProvider} backed by the system's {@link ConnectivityManager}.
+ */
+class AndroidConnectivityProvider implements ConnectivityProvider {
+    private ConnectivityManager cm;
+
+    AndroidConnectivityProvider(Context context) {
+        cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        NetworkInfo netInfo = cm.getActiveNetworkInfo();
+        return netInfo != null && netInfo.isConnectedOrConnecting();
+    }
+
+    @Override
+    public boolean isUnmetered() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        NetworkInfo netInfo = cm.getActiveNetworkInfo();
+        return netInfo != null && !isMobile(netInfo.getType());
+    }
+
+    @Override
+    public NetworkClass getNetworkClass() {
+        NetworkInfo netInfo = cm.getActiveNetworkInfo();
+        if (netInfo == null) return NetworkClass.SLOW;
+        if (!isMobile(netInfo.getType())) return NetworkClass.FAST;
+
+        switch (netInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NetworkClass.SLOW;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NetworkClass.FAST;
+            default:
+                // 3G, and anything unknown or newer than this code. Newer types are faster, but
+                // unknown ones may not be, so be conservative.
+                return NetworkClass.MODERATE;
+        }
+    }
+
+    private static boolean isMobile(int type) {
+        return type == ConnectivityManager.TYPE_MOBILE;
+    }
+}
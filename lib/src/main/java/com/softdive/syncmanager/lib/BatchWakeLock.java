@@ -0,0 +1,61 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * A single partial wake lock held from the moment an alarm is delivered until the last sync it
+ * started has finished, so the CPU can't go back to sleep partway through a batch. It has a hard
+ * timeout, so a stuck sync can't keep the device awake indefinitely. Every hold is recorded in
+ * {@link SyncMetrics#batches()}.
+ */
+class BatchWakeLock {
+    private static final String TAG = "SyncManager:batch";
+
+    private final PowerManager.WakeLock wakeLock;
+    private final long timeout;
+    // Guarded by this.
+    private long acquiredAt;
+
+    /**
+     * @param timeout how long in milliseconds the wake lock may be held at most
+     */
+    BatchWakeLock(Context context, long timeout) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Acquires the wake lock, or keeps holding it if a batch is already running. The timeout
+     * counts from the first acquire; once it has run out, the next acquire records the timed out
+     * hold and starts a new one.
+     */
+    synchronized void acquire() {
+        if (acquiredAt != 0) {
+            if (wakeLock.isHeld()) return;
+            release();
+        }
+        acquiredAt = SystemClock.elapsedRealtime();
+        wakeLock.acquire(timeout);
+        SyncTrace.trace(SyncTrace.Event.WAKE_LOCK_ACQUIRED, null, timeout);
+    }
+
+    /**
+     * Releases the wake lock if it's held, and records how long it was held.
+     */
+    synchronized void release() {
+        if (acquiredAt == 0) return;
+        long held = SystemClock.elapsedRealtime() - acquiredAt;
+        acquiredAt = 0;
+        // It's no longer held if the timeout released it first.
+        boolean timedOut = !wakeLock.isHeld();
+        if (!timedOut) {
+            wakeLock.release();
+        }
+        SyncMetrics.batches().recordWakeLock(timedOut ? timeout : held, timedOut);
+        SyncTrace.trace(SyncTrace.Event.WAKE_LOCK_RELEASED, null, timedOut ? timeout : held);
+    }
+}
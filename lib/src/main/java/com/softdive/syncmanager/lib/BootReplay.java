@@ -0,0 +1,62 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Plans when to catch up on the syncs that were due while the device was off, following each
+ * listener's {@link CatchUp} policy. Nothing runs before a delay after boot, so catching up doesn't
+ * compete with everything else starting then, and the catch-ups are spread out from there.
+ */
+class BootReplay {
+    private BootReplay() {
+    }
+
+    /**
+     * @param overdue   the listeners that were due while the device was off, and when
+     * @param listeners every listener, to look up their policies
+     * @param now       the current time
+     * @param delay     how long in milliseconds after now the first catch-up may run
+     * @param stagger   how long in milliseconds apart {@link CatchUp#ONCE} listeners run, earliest
+     *                  missed first
+     * @param random    picks the times of {@link CatchUp#SPREAD} listeners
+     * @return when each listener that catches up should sync, the others are left out
+     */
+    static Map<String, Long> plan(Map<String, Long> overdue, Map<String, LazyListener> listeners, long now,
+                                  long delay, long stagger, Random random) {
+        List<Map.Entry<String, Long>> missed = new ArrayList<>(overdue.entrySet());
+        Collections.sort(missed, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+
+        Map<String, Long> times = new LinkedHashMap<>();
+        long start = now + delay;
+        int staggered = 0;
+        for (Map.Entry<String, Long> entry : missed) {
+            LazyListener listener = listeners.get(entry.getKey());
+            if (listener == null) continue;
+            SyncManager.Config config = listener.config();
+            if (!config.enabled()) continue;
+            switch (config.catchUp()) {
+                case ONCE:
+                    times.put(entry.getKey(), start + staggered++ * stagger);
+                    break;
+                case SPREAD:
+                    long window = config.catchUpWindow();
+                    times.put(entry.getKey(), start + (window > 0 ? (long) (random.nextDouble() * window) : 0));
+                    break;
+                case SKIP:
+                    break;
+            }
+        }
+        return times;
+    }
+}
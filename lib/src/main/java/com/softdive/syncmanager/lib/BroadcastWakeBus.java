@@ -0,0 +1,64 @@
+package com.softdive.syncmanager.lib;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link WakeBus} that sends an explicit broadcast to the {@link SyncWakeReceiver} of every other
+ * installed app using this library. Explicit broadcasts are used because implicit ones no longer
+ * reach manifest receivers on newer versions of Android.
+ *
+ * <p> Each broadcast carries a {@link PendingIntent} created by the sender, whose creator the system
+ * vouches for, so receivers can tell which app really sent it. </p>
+ */
+class BroadcastWakeBus implements WakeBus {
+    static final String ACTION_PEER_WAKE = "com.softdive.syncmanager.lib.action.PEER_WAKE";
+    static final String EXTRA_TOKEN = "token";
+
+    private Context context;
+
+    BroadcastWakeBus(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void publish() {
+        String sender = context.getPackageName();
+        List<ResolveInfo> receivers = context.getPackageManager().queryBroadcastReceivers(new Intent(ACTION_PEER_WAKE), 0);
+        if (receivers == null) return;
+
+        Set<String> packages = new HashSet<>();
+        for (ResolveInfo info : receivers) {
+            if (info.activityInfo != null) {
+                packages.add(info.activityInfo.packageName);
+            }
+        }
+        packages.remove(sender);
+
+        // Never sent, it only identifies this app.
+        PendingIntent token = PendingIntent.getBroadcast(context, 0, new Intent(ACTION_PEER_WAKE).setPackage(sender), 0);
+        for (String packageName : packages) {
+            Intent intent = new Intent(ACTION_PEER_WAKE);
+            intent.setPackage(packageName);
+            intent.putExtra(EXTRA_TOKEN, token);
+            context.sendBroadcast(intent);
+        }
+    }
+
+    /**
+     * Returns the package of the app that sent the broadcast, or null if it doesn't say.
+     */
+    @SuppressWarnings("deprecation")
+    static String getSender(Intent intent) {
+        PendingIntent token = intent.getParcelableExtra(EXTRA_TOKEN);
+        if (token == null) return null;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 ? token.getCreatorPackage() : token.getTargetPackage();
+    }
+}
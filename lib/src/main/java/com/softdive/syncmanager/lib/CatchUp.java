@@ -0,0 +1,41 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * What to do about a sync that was due while the device was off.
+ *
+ * @see SyncManager.Edit#catchUp(CatchUp)
+ */
+public enum CatchUp {
+    /**
+     * Wait for the next regular time.
+     */
+    SKIP("skip"),
+    /**
+     * Sync once shortly after boot, one missed listener after another.
+     */
+    ONCE("once"),
+    /**
+     * Sync once at a random time within the catch-up window after boot.
+     *
+     * @see SyncManager.Edit#catchUpWindow(long)
+     */
+    SPREAD("spread");
+
+    public static final CatchUp DEFAULT = SKIP;
+
+    /**
+     * The name used in xml and to persist the policy.
+     */
+    final String key;
+
+    CatchUp(String key) {
+        this.key = key;
+    }
+
+    static CatchUp fromKey(String key) {
+        for (CatchUp catchUp : values()) {
+            if (catchUp.key.equals(key)) return catchUp;
+        }
+        throw new IllegalArgumentException("Unknown catchUp {" + key + "}");
+    }
+}
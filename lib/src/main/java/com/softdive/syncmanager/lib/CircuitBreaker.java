@@ -0,0 +1,40 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * Stops a {@link SyncManager} from syncing after too many consecutive failures. While open, syncs
+ * are skipped until a cooldown has passed. Then a single probe sync is let through: if it
+ * succeeds the circuit closes again, otherwise it stays open for another cooldown.
+ *
+ * <p> The state is derived from the persisted failure count and the time the circuit opened, so
+ * it survives the process being killed and can be read from outside the service. </p>
+ */
+class CircuitBreaker {
+    static final long MIN_COOLDOWN = SyncManager.Config.MINUTES;
+
+    private CircuitBreaker() {
+    }
+
+    /**
+     * Returns the state of the given listener's circuit.
+     *
+     * @param prefs  where the failures are persisted
+     * @param name   the listener
+     * @param config the listener's configuration
+     * @param now    the current time
+     */
+    static SyncManager.CircuitState state(SyncPreferences prefs, String name, SyncManager.Config config, long now) {
+        int threshold = config.circuitThreshold();
+        if (threshold <= 0 || prefs.getConsecutiveFailures(name) < threshold) {
+            return SyncManager.CircuitState.CLOSED;
+        }
+        long openedAt = prefs.getCircuitOpenedAt(name);
+        return now - openedAt >= cooldown(config.every()) ? SyncManager.CircuitState.HALF_OPEN : SyncManager.CircuitState.OPEN;
+    }
+
+    /**
+     * Returns how long the circuit stays open for a listener syncing at the given interval.
+     */
+    static long cooldown(long every) {
+        return Math.max(every, MIN_COOLDOWN);
+    }
+}
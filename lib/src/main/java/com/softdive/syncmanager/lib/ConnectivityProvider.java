@@ -0,0 +1,28 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+/**
+ * Describes the network the device is currently on, so the {@link SyncService} can decide if a
+ * sync may run on it.
+ */
+interface ConnectivityProvider {
+    /**
+     * Creates the provider a {@link SyncService} checks the network with.
+     */
+    interface Factory {
+        ConnectivityProvider create(Context context);
+    }
+
+    boolean isConnected();
+
+    /**
+     * Returns true if data on the current network isn't metered, like most Wi-Fi.
+     */
+    boolean isUnmetered();
+
+    /**
+     * Returns how fast the current network is, only meaningful while connected.
+     */
+    NetworkClass getNetworkClass();
+}
@@ -2,10 +2,15 @@ package com.softdive.syncmanager.lib;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
-import static com.softdive.syncmanager.lib.MathUtil.divCeil;
+import static com.softdive.syncmanager.lib.MathUtil.randomInRange;
 
 class EventCalculator {
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private static volatile MidnightCache sCache;
+
     /**
      * Calculate when to fire the next event. This should happen at the next timestamp which is a
      * multiple of the given interval since midnight in the current timezone. Both the arguments and
@@ -16,28 +21,190 @@ class EventCalculator {
      * @return the next event time.
      */
     public static long getNextEvent(long currentTime, long interval) {
+        return getNextEvent(currentTime, interval, null);
+    }
+
+    /**
+     * Calculate when to fire the next event in the given timezone.
+     *
+     * @param currentTime the time to start from, the result will be the next event after this time
+     * @param interval    the interval
+     * @param zone        the timezone, or null for the current default timezone
+     * @return the next event time.
+     * @see #getNextEvent(long, long)
+     */
+    static long getNextEvent(long currentTime, long interval, TimeZone zone) {
         if (interval == 0) return currentTime;
 
-        long startTime = getPreviousMidnight(currentTime);
+        long startTime = getPreviousMidnight(currentTime, zone);
         long span = currentTime - startTime;
 
-        long result;
-        if (span == 0) {
-            // It's midnight!
-            result = startTime + interval;
-        } else {
-            result = startTime + divCeil(span, interval) * interval;
+        // Always strictly after the current time, also when it falls exactly on an event (like
+        // midnight), or a sync finishing on its own scheduled millisecond is scheduled again for
+        // that same millisecond.
+        return startTime + (span / interval + 1) * interval;
+    }
+
+    /**
+     * Calculate when a device should next sync. This is the next event for the interval, offset by
+     * a per-device amount within the range so that devices don't all sync at the same time.
+     *
+     * @param currentTime the time to start from
+     * @param interval    the interval
+     * @param range       the range of the per-device offset
+     * @param seed        the per-device seed the offset is derived from
+     * @return the next sync time
+     * @see #getNextEvent(long, long)
+     */
+    static long getNextSyncTime(long currentTime, long interval, long range, long seed) {
+        return getNextSyncTime(currentTime, interval, range, seed, null);
+    }
+
+    /**
+     * Calculate when a device in the given timezone should next sync.
+     *
+     * @param zone the timezone, or null for the current default timezone
+     * @see #getNextSyncTime(long, long, long, long)
+     */
+    static long getNextSyncTime(long currentTime, long interval, long range, long seed, TimeZone zone) {
+        return getNextEvent(currentTime, interval, zone) + randomInRange(seed, 0, range);
+    }
+
+    /**
+     * Forgets the cached midnight, so the next calculation picks up the new default timezone. Call
+     * this whenever the default timezone changes.
+     */
+    static void onTimeZoneChanged() {
+        sCache = null;
+    }
+
+    /**
+     * Returns the local midnight at or before the given time. This is called for every alarm that
+     * is set, so it avoids building a calendar each time: the current day and the zone's offset are
+     * cached along with the next offset transition, and until then midnight is plain arithmetic.
+     */
+    static long getPreviousMidnight(long currentTime, TimeZone zone) {
+        MidnightCache cache = sCache;
+        if (cache != null && cache.covers(zone, currentTime)) {
+            return cache.previousMidnight(currentTime);
         }
-        return result;
+
+        cache = MidnightCache.create(zone, currentTime);
+        sCache = cache;
+        return cache.previousMidnight(currentTime);
+    }
+
+    /**
+     * Returns the local midnight at or before the given time by asking a calendar. This is the
+     * reference the cached calculation must always agree with.
+     */
+    static long getPreviousMidnightSlow(long currentTime, TimeZone zone) {
+        return toMidnight(newCalendar(currentTime, zone)).getTimeInMillis();
     }
 
-    private static long getPreviousMidnight(long currentTime) {
-        Calendar date = new GregorianCalendar();
-        date.setTimeInMillis(currentTime);
+    private static Calendar newCalendar(long time, TimeZone zone) {
+        Calendar date = new GregorianCalendar(zone);
+        date.setTimeInMillis(time);
+        return date;
+    }
+
+    private static Calendar toMidnight(Calendar date) {
         date.set(Calendar.HOUR_OF_DAY, 0);
         date.set(Calendar.MINUTE, 0);
         date.set(Calendar.SECOND, 0);
         date.set(Calendar.MILLISECOND, 0);
-        return date.getTimeInMillis();
+        return date;
+    }
+
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+
+    /**
+     * The day a time falls in, as found by a calendar, followed by a window over which the zone's
+     * offset from UTC doesn't change. Every day in that window is exactly 24 hours long and starts
+     * at the same offset, so its midnight can be found with arithmetic alone.
+     */
+    private static final class MidnightCache {
+        // How far ahead to look for the next offset transition, and how finely. Real zones never
+        // have two transitions within a step of each other.
+        private static final long HORIZON = 31 * DAY;
+        private static final long STEP = 6 * 60 * 60 * 1000;
+
+        // The zone passed in by the caller, null when following the default zone.
+        private final TimeZone zone;
+        private final long dayStart;
+        // Where the calendar's next day starts, and where the day's date actually ends. They differ
+        // when the clock is turned back right after midnight, so midnight happens twice: the
+        // calendar picks the second one, and the times in between are left to it.
+        private final long dayEnd;
+        private final long dateEnd;
+        private final long offset;
+        private final long end;
+
+        private MidnightCache(TimeZone zone, long dayStart, long dayEnd, long dateEnd, long offset, long end) {
+            this.zone = zone;
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+            this.dateEnd = dateEnd;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        static MidnightCache create(TimeZone zone, long time) {
+            TimeZone actualZone = zone != null ? zone : TimeZone.getDefault();
+            Calendar date = toMidnight(newCalendar(time, actualZone));
+            long dayStart = date.getTimeInMillis();
+            date.add(Calendar.DAY_OF_MONTH, 1);
+            long dayEnd = toMidnight(date).getTimeInMillis();
+            long dayOffset = actualZone.getOffset(dayStart);
+            long dateEnd = Math.min(dayEnd, dayStart - floorMod(dayStart + dayOffset, DAY) + DAY);
+
+            long offset = actualZone.getOffset(dayEnd);
+            long end = dayEnd;
+            if (floorMod(dayEnd + offset, DAY) == 0) {
+                // Stop at the last midnight before the transition. The day the transition happens
+                // in may have a skipped or repeated midnight, so it's left to the calendar.
+                long transition = nextTransition(actualZone, dayEnd, offset);
+                end = Math.max(dayEnd, transition - floorMod(transition + offset, DAY));
+            }
+            return new MidnightCache(zone, dayStart, dayEnd, dateEnd, offset, end);
+        }
+
+        boolean covers(TimeZone zone, long time) {
+            return zone == this.zone && time >= dayStart && time < end && (time < dateEnd || time >= dayEnd);
+        }
+
+        long previousMidnight(long time) {
+            if (time < dayEnd) return dayStart;
+            return time - floorMod(time + offset, DAY);
+        }
+
+        /**
+         * Finds the first instant after {@code from} where the zone's offset is no longer the given
+         * one, or the end of the horizon if there is none.
+         */
+        private static long nextTransition(TimeZone zone, long from, long offset) {
+            long limit = from + HORIZON;
+            long low = from;
+            long high = from;
+            while (true) {
+                high = Math.min(high + STEP, limit);
+                if (zone.getOffset(high) != offset) break;
+                if (high == limit) return limit;
+                low = high;
+            }
+            // The offset changes somewhere in (low, high], narrow it down to the millisecond.
+            while (high - low > 1) {
+                long mid = low + (high - low) / 2;
+                if (zone.getOffset(mid) == offset) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            return high;
+        }
     }
 }
@@ -0,0 +1,31 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link WakeBus} between apps running in the same process, such as several apps simulated in a
+ * test. Every app joins with its own context, and a wake-up published by one starts the {@link
+ * SyncService} of every other app that joined.
+ */
+class InProcessWakeBus implements WakeBus.Factory {
+    // The latest context each app joined with, by package name.
+    private final Map<String, Context> members = new ConcurrentHashMap<>();
+
+    @Override
+    public WakeBus create(final Context context) {
+        members.put(context.getPackageName(), context);
+        return new WakeBus() {
+            @Override
+            public void publish() {
+                for (Map.Entry<String, Context> member : members.entrySet()) {
+                    if (!member.getKey().equals(context.getPackageName())) {
+                        member.getValue().startService(SyncService.getPeerWakeIntent(member.getValue()));
+                    }
+                }
+            }
+        };
+    }
+}
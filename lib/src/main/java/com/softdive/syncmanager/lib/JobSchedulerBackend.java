@@ -0,0 +1,88 @@
+package com.softdive.syncmanager.lib;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Wakes the service with {@link JobScheduler} jobs, run by the {@link SyncJobService}. The batch's
+ * range and requirements become job constraints, so the system can run it together with other
+ * apps' jobs and in Doze maintenance windows, within the range of its earliest listener.
+ *
+ * <p> Job ids are shared with every other job of the app, so this uses two fixed ids that are
+ * unlikely to collide: {@link #WAKE_UP_JOB_ID} and {@link #NETWORK_JOB_ID}. </p>
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class JobSchedulerBackend implements SchedulerBackend {
+    static final int WAKE_UP_JOB_ID = 0x53594e43;
+    static final int NETWORK_JOB_ID = WAKE_UP_JOB_ID + 1;
+
+    private final Context context;
+    private final JobScheduler jobScheduler;
+
+    JobSchedulerBackend(Context context) {
+        this.context = context;
+        jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    @Override
+    public void start() {
+        // The system watches the network and power for the jobs.
+        AlarmBackend.cancelAll(context);
+    }
+
+    @Override
+    public void stop() {
+        cancelAll(context);
+    }
+
+    @Override
+    public void setWakeUp(long time, long flex, boolean requiresUnmetered, boolean requiresCharging) {
+        long delay = Math.max(0, time - System.currentTimeMillis());
+        // Syncs need a network, but it's only a hint until the deadline, the service handles being
+        // offline like it would for an alarm.
+        // Not persisted: after a reboot SyncBootReceiver decides what to catch up on.
+        JobInfo job = new JobInfo.Builder(WAKE_UP_JOB_ID, getComponent())
+                .setMinimumLatency(delay)
+                .setOverrideDeadline(delay + flex)
+                .setRequiredNetworkType(requiresUnmetered ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(requiresCharging)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    @Override
+    public void cancelWakeUp() {
+        jobScheduler.cancel(WAKE_UP_JOB_ID);
+    }
+
+    @Override
+    public void waitForNetwork(boolean unmetered) {
+        for (JobInfo pending : jobScheduler.getAllPendingJobs()) {
+            // Already waiting for a network that will do.
+            if (pending.getId() == NETWORK_JOB_ID
+                    && (unmetered || pending.getNetworkType() == JobInfo.NETWORK_TYPE_ANY)) return;
+        }
+        // Persisted, like the enabled state of the receiver it replaces.
+        jobScheduler.schedule(new JobInfo.Builder(NETWORK_JOB_ID, getComponent())
+                .setPersisted(true)
+                .setRequiredNetworkType(unmetered ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .build());
+    }
+
+    /**
+     * Cancels both jobs. Used when switching to another backend.
+     */
+    static void cancelAll(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.cancel(WAKE_UP_JOB_ID);
+        jobScheduler.cancel(NETWORK_JOB_ID);
+    }
+
+    private ComponentName getComponent() {
+        return new ComponentName(context, SyncJobService.class);
+    }
+}
@@ -0,0 +1,100 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * A declared listener whose {@link SyncManager} is only created, and {@link
+ * SyncManager#onCreate(Context)} only called, the first time it's actually needed to sync. Its
+ * configuration is available without creating it. If it goes unused for long enough it may be
+ * released again with {@link #evictIfIdle(long, long)}.
+ */
+class LazyListener {
+    private final Context context;
+    private final SyncRegistry registry;
+    private final SyncRegistry.ListenerSpec spec;
+    private final SyncConfigStore configStore;
+    private final SyncMetrics metrics = new SyncMetrics();
+
+    // Guarded by this.
+    private SyncManager instance;
+    private int users;
+    private long lastUsed;
+
+    LazyListener(Context context, SyncRegistry registry, SyncRegistry.ListenerSpec spec) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.registry = registry;
+        this.spec = spec;
+        configStore = new SyncConfigStore(this.context, spec.name);
+        configStore.editDefault(spec.defaults);
+        if (!spec.lazy) {
+            acquire();
+            release();
+        }
+    }
+
+    String getName() {
+        return spec.name;
+    }
+
+    /**
+     * Returns the names of the listeners that must sync before this one when they're due together.
+     */
+    List<String> dependsOn() {
+        return spec.dependsOn;
+    }
+
+    SyncManager.Config config() {
+        return configStore.get();
+    }
+
+    SyncConfigStore configStore() {
+        return configStore;
+    }
+
+    SyncMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the listener, creating it if necessary. It will not be evicted until {@link
+     * #release()} is called.
+     */
+    synchronized SyncManager acquire() {
+        if (instance == null) {
+            SyncManager listener = registry.create(spec.name);
+            listener.attach(configStore);
+            listener.onCreate(context);
+            listener.ensureOnCreate();
+            // The declared config takes precedence over defaults set in onCreate().
+            listener.editDefault(spec.defaults);
+            instance = listener;
+        }
+        users++;
+        return instance;
+    }
+
+    synchronized void release() {
+        users--;
+        lastUsed = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Releases the listener if it isn't in use and hasn't been used for the given time.
+     *
+     * @param now     the current {@link SystemClock#elapsedRealtime()}
+     * @param maxIdle how long the listener may go unused, or 0 to never release it
+     * @return true if the listener was released
+     */
+    synchronized boolean evictIfIdle(long now, long maxIdle) {
+        if (instance == null || users > 0 || maxIdle <= 0 || !spec.lazy) return false;
+        if (now - lastUsed < maxIdle) return false;
+
+        SyncManager listener = instance;
+        instance = null;
+        listener.onDestroy(context);
+        return true;
+    }
+}
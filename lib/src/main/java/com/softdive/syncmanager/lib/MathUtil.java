@@ -1,30 +1,6 @@
 package com.softdive.syncmanager.lib;
 
 class MathUtil {
-    /**
-     * Divides 2 longs, but takes the ceiling instead of rounding towards zero.
-     *
-     * Implementation taken from: <a href="http://ericlippert.com/2013/01/28/integer-division-that-rounds-up/">
-     * http://ericlippert.com/2013/01/28/integer-division-that-rounds-up/</a>
-     *
-     * @param a the numerator
-     * @param b the denominator
-     * @return ceil[a/b]
-     * @throws java.lang.ArithmeticException if b is zero.
-     */
-    static long divCeil(long a, long b) {
-        if (b == 0) throw new ArithmeticException("divide by zero");
-        if (b == -1 && a == Long.MIN_VALUE) return Long.MIN_VALUE;
-        long roundedTowardsZero = a / b;
-        boolean dividedEvenly = (a % b) == 0;
-        if (dividedEvenly) {
-            return roundedTowardsZero;
-        } else {
-            boolean roundedDown = (a > 0) == (b > 0);
-            return roundedDown ? roundedTowardsZero + 1 : roundedTowardsZero;
-        }
-    }
-
     /**
      * For some pseudo-random uniformly distributed long seed, returns a pseudo-random uniformly
      * distributed long between lower and upper (both inclusive). A good source of the seed
@@ -42,14 +18,23 @@ class MathUtil {
             throw new IllegalArgumentException("upper must be greater than lower !(" + upper + ">" + lower + ")");
         }
 
+        long bound = span + 1;
+        if (bound < 0) {
+            // The range covers every non-negative long.
+            return ((seed << 1) >>> 1) + lower;
+        }
+
         // Convert [-Long.MIN_VALUE,Long.MAX_VALUE] to [0, span]
         // source: http://stackoverflow.com/a/2546186 which was in turn taken from the javadoc for
-        // Random.nextInt(n).
+        // Random.nextInt(n). Values in the last incomplete multiple of the bound are rejected to
+        // avoid bias, and a new value derived from the seed is drawn instead.
         long bits, val;
-        do {
+        while (true) {
             bits = (seed << 1) >>> 1;
-            val = bits % span;
-        } while (bits - val + span < 0L);
+            val = bits % bound;
+            if (bits - val + span >= 0L) break;
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+        }
 
         return val + lower;
     }
@@ -0,0 +1,35 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * A rough measure of how fast a network is, for {@link SyncManager.Edit#minNetworkClass(NetworkClass)}.
+ */
+public enum NetworkClass {
+    /**
+     * Any connection, including 2G.
+     */
+    SLOW("slow"),
+    /**
+     * 3G or better.
+     */
+    MODERATE("moderate"),
+    /**
+     * LTE or better, Wi-Fi or ethernet.
+     */
+    FAST("fast");
+
+    /**
+     * The name used in xml and to persist the class.
+     */
+    final String key;
+
+    NetworkClass(String key) {
+        this.key = key;
+    }
+
+    static NetworkClass fromKey(String key) {
+        for (NetworkClass networkClass : values()) {
+            if (networkClass.key.equals(key)) return networkClass;
+        }
+        throw new IllegalArgumentException("Unknown network class {" + key + "}");
+    }
+}
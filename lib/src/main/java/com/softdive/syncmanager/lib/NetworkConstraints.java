@@ -0,0 +1,34 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * Decides if a listener may sync on the current network, given its {@link SyncManager.Config}.
+ */
+class NetworkConstraints {
+    private NetworkConstraints() {
+    }
+
+    /**
+     * @param config       the listener's configuration
+     * @param connectivity the current network, which must be connected
+     * @param waitingSince when the listener was first due and started waiting for a suitable
+     *                     network
+     * @param now          the current time
+     * @return true if the sync may run now
+     */
+    static boolean isSatisfied(SyncManager.Config config, ConnectivityProvider connectivity, long waitingSince, long now) {
+        if (connectivity.getNetworkClass().compareTo(config.minNetworkClass()) < 0) return false;
+        if (connectivity.isUnmetered()) return true;
+        if (config.requiresUnmetered()) return false;
+        return now - waitingSince >= config.preferUnmetered();
+    }
+
+    /**
+     * Returns when a listener that has been waiting since the given time will run on a metered
+     * network anyway, or 0 if it only can run once the network changes.
+     */
+    static long meteredDeadline(SyncManager.Config config, ConnectivityProvider connectivity, long waitingSince) {
+        if (config.requiresUnmetered()) return 0;
+        if (connectivity.getNetworkClass().compareTo(config.minNetworkClass()) < 0) return 0;
+        return waitingSince + config.preferUnmetered();
+    }
+}
@@ -0,0 +1,82 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which listeners were due to sync while there was no network, or no network suitable
+ * for them, so that the syncs they missed can be caught up on once the network changes. Each entry is persisted as soon as it
+ * changes, so the queue survives the process being killed while offline.
+ */
+class OfflineQueue {
+    private final SyncPreferences prefs;
+    // Listener name -> when it was due.
+    private final Map<String, Long> dueTimes;
+
+    OfflineQueue(SyncPreferences prefs) {
+        this.prefs = prefs;
+        dueTimes = new HashMap<>(prefs.getOfflineQueue());
+    }
+
+    /**
+     * Records that the listener was due at the given time. If it already is in the queue, the
+     * earlier time is kept.
+     */
+    void add(String name, long dueTime) {
+        Long previous = dueTimes.get(name);
+        if (previous != null && previous <= dueTime) return;
+        dueTimes.put(name, dueTime);
+        prefs.setOfflineQueue(dueTimes);
+    }
+
+    /**
+     * Returns when the listener was first due while waiting in the queue, or 0 if it isn't queued.
+     */
+    long getDueTime(String name) {
+        Long time = dueTimes.get(name);
+        return time == null ? 0 : time;
+    }
+
+    void remove(String name) {
+        if (dueTimes.remove(name) != null) {
+            prefs.setOfflineQueue(dueTimes);
+        }
+    }
+
+    void clear() {
+        if (dueTimes.isEmpty()) return;
+        dueTimes.clear();
+        prefs.setOfflineQueue(dueTimes);
+    }
+
+    /**
+     * Returns the listeners that were due at or before the given time, earliest first, and drops
+     * the ones that weren't due yet since they didn't miss anything. The returned listeners stay in
+     * the queue until they are {@link #remove(String) removed}.
+     */
+    List<String> takeMissed(long time) {
+        final Map<String, Long> missed = new HashMap<>();
+        for (Map.Entry<String, Long> entry : dueTimes.entrySet()) {
+            if (entry.getValue() <= time) {
+                missed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (missed.size() != dueTimes.size()) {
+            dueTimes.keySet().retainAll(missed.keySet());
+            prefs.setOfflineQueue(dueTimes);
+        }
+
+        List<String> names = new ArrayList<>(missed.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return missed.get(a).compareTo(missed.get(b));
+            }
+        });
+        return names;
+    }
+}
@@ -0,0 +1,40 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * How urgently a sync should run when more syncs are waiting than there are threads to run them.
+ * Higher priorities start first, and waiting syncs slowly gain priority so that low priority ones
+ * still get to run.
+ *
+ * @see SyncManager.Edit#priority(Priority)
+ * @see SyncProxy#sync(Priority)
+ */
+public enum Priority {
+    /**
+     * Background work that can wait, like uploading analytics.
+     */
+    LOW("low"),
+    NORMAL("normal"),
+    /**
+     * Work the user is waiting for. High priority syncs may use one thread more than the library's
+     * {@code threads} limit, so they start right away even if every thread is busy.
+     */
+    HIGH("high");
+
+    public static final Priority DEFAULT = NORMAL;
+
+    /**
+     * The name used in xml and to persist the priority.
+     */
+    final String key;
+
+    Priority(String key) {
+        this.key = key;
+    }
+
+    static Priority fromKey(String key) {
+        for (Priority priority : values()) {
+            if (priority.key.equals(key)) return priority;
+        }
+        throw new IllegalArgumentException("Unknown priority {" + key + "}");
+    }
+}
@@ -14,11 +14,13 @@ class ReceiverUtils {
         ComponentName receiver = new ComponentName(context, receiverClass);
         PackageManager pm = context.getPackageManager();
         pm.setComponentEnabledSetting(receiver, COMPONENT_ENABLED_STATE_ENABLED, DONT_KILL_APP);
+        SyncTrace.trace(SyncTrace.Event.RECEIVER_ENABLED, receiverClass.getName());
     }
 
     static <T extends BroadcastReceiver> void disable(Context context, Class<T> receiverClass) {
         ComponentName receiver = new ComponentName(context, receiverClass);
         PackageManager pm = context.getPackageManager();
         pm.setComponentEnabledSetting(receiver, COMPONENT_ENABLED_STATE_DISABLED, DONT_KILL_APP);
+        SyncTrace.trace(SyncTrace.Event.RECEIVER_DISABLED, receiverClass.getName());
     }
 }
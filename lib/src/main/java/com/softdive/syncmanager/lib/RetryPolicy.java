@@ -0,0 +1,138 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * How long a {@link SyncManager} waits before retrying a failed sync. The policies start from
+ * {@link SyncManager.Config#retryDelay()}, and every delay is capped at the larger of {@link
+ * SyncManager.Config#every()} and 5 seconds.
+ *
+ * <p> The jittered policies pick a different delay on every device, so that after an outage the
+ * retries of many devices don't come back in synchronized waves. </p>
+ */
+public enum RetryPolicy {
+    /**
+     * Doubles the delay on every failure, starting from the retry delay. The retry lands on the
+     * device's usual offset within {@link SyncManager.Config#range()}. This is the default.
+     */
+    EXPONENTIAL("exponential", true) {
+        @Override
+        long nextDelay(int attempt, long previous, long base, long cap, Random random) {
+            return Math.min(cap, previous == 0 ? base : previous * 2);
+        }
+    },
+
+    /**
+     * Picks a random delay between 0 and the exponential delay for the attempt.
+     */
+    FULL_JITTER("fullJitter", false) {
+        @Override
+        long nextDelay(int attempt, long previous, long base, long cap, Random random) {
+            return randomBetween(random, 0, exponential(attempt, base, cap));
+        }
+    },
+
+    /**
+     * Picks a random delay between the base delay and three times the previous delay, so delays
+     * grow on average but stay spread out.
+     */
+    DECORRELATED_JITTER("decorrelatedJitter", false) {
+        @Override
+        long nextDelay(int attempt, long previous, long base, long cap, Random random) {
+            long high = previous == 0 ? base : previous > cap / 3 ? cap : previous * 3;
+            return Math.min(cap, randomBetween(random, base, high));
+        }
+    },
+
+    /**
+     * Always waits the retry delay, however many times the sync failed.
+     */
+    FIXED("fixed", true) {
+        @Override
+        long nextDelay(int attempt, long previous, long base, long cap, Random random) {
+            return Math.min(cap, base);
+        }
+    };
+
+    static final RetryPolicy DEFAULT = EXPONENTIAL;
+
+    static final long MIN_CAP = 5 * SyncManager.Config.SECONDS;
+
+    /**
+     * The name used in xml and to persist the policy.
+     */
+    final String key;
+
+    /**
+     * If true, retries are aligned like regular syncs and offset within the configured range. If
+     * false, the delay already is random and the retry runs right after it.
+     */
+    final boolean aligned;
+
+    RetryPolicy(String key, boolean aligned) {
+        this.key = key;
+        this.aligned = aligned;
+    }
+
+    /**
+     * Calculates the delay before the next retry.
+     *
+     * @param attempt  the number of consecutive failures so far, at least 1
+     * @param previous the previous delay, or 0 if this is the first failure
+     * @param base     the smallest delay
+     * @param cap      the largest delay
+     * @param random   the source of jitter
+     * @return the delay in milliseconds
+     */
+    abstract long nextDelay(int attempt, long previous, long base, long cap, Random random);
+
+    /**
+     * Calculates the delay before the next retry of a listener syncing at the given interval.
+     *
+     * @param attempt  the number of consecutive failures so far, at least 1
+     * @param previous the previous delay, or 0 if this is the first failure
+     * @param base     the listener's retry delay
+     * @param every    the listener's interval
+     * @param random   the source of jitter
+     * @return the delay in milliseconds
+     */
+    long retryDelay(int attempt, long previous, long base, long every, Random random) {
+        return nextDelay(attempt, previous, base, Math.max(every, MIN_CAP), random);
+    }
+
+    /**
+     * Returns when to retry after the given delay.
+     *
+     * @param now   the current time
+     * @param delay the delay from {@link #retryDelay(int, long, long, long, Random)}
+     * @param range the listener's range
+     * @param seed  the per-device seed
+     * @param zone  the timezone, or null for the current default timezone
+     * @return the retry time
+     */
+    long retryTime(long now, long delay, long range, long seed, TimeZone zone) {
+        return aligned ? EventCalculator.getNextSyncTime(now, delay, range, seed, zone) : now + delay;
+    }
+
+    static RetryPolicy fromKey(String key) {
+        for (RetryPolicy policy : values()) {
+            if (policy.key.equals(key)) return policy;
+        }
+        throw new IllegalArgumentException("Unknown retry policy {" + key + "}");
+    }
+
+    private static long exponential(int attempt, long base, long cap) {
+        // Stop doubling before it can overflow.
+        long delay = base;
+        for (int i = 1; i < attempt && delay < cap; i++) {
+            delay *= 2;
+        }
+        return Math.min(cap, delay);
+    }
+
+    private static long randomBetween(Random random, long low, long high) {
+        if (high <= low) return low;
+        return low + (long) (random.nextDouble() * (high - low));
+    }
+}
@@ -0,0 +1,69 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * Wakes the {@link SyncService} when the next batch of syncs is due, and when the network it's
+ * waiting for is back. All calls are made on the service's control thread.
+ */
+interface SchedulerBackend {
+    /**
+     * Called when the service starts, before anything is scheduled.
+     */
+    void start();
+
+    /**
+     * Called when the service stops. Cancels every wake-up.
+     */
+    void stop();
+
+    /**
+     * Wakes the service with a batch intent at the given time, replacing any previous wake-up.
+     *
+     * @param time              when the batch is due
+     * @param flex              how long in milliseconds the batch may be put off past its time to
+     *                          run together with other work or wait for its requirements
+     * @param requiresUnmetered if every listener in the batch only syncs on unmetered networks
+     * @param requiresCharging  if every listener in the batch only syncs while charging
+     */
+    void setWakeUp(long time, long flex, boolean requiresUnmetered, boolean requiresCharging);
+
+    void cancelWakeUp();
+
+    /**
+     * Tells the service through a network back intent once the device is on a network again.
+     *
+     * @param unmetered true if only an unmetered network will do
+     */
+    void waitForNetwork(boolean unmetered);
+
+    /**
+     * Selects the backend, declared as the {@code scheduler} attribute on the root tag.
+     */
+    enum Type {
+        /**
+         * {@link #JOB_SCHEDULER} from Android 7.0 on, where manifest receivers no longer get
+         * connectivity changes, and {@link #ALARM} before.
+         */
+        AUTO("auto"),
+        ALARM("alarm"),
+        /**
+         * Only available from Android 5.0 on, falls back to {@link #ALARM} before.
+         */
+        JOB_SCHEDULER("jobScheduler");
+
+        /**
+         * The name used in xml.
+         */
+        final String key;
+
+        Type(String key) {
+            this.key = key;
+        }
+
+        static Type fromKey(String key) {
+            for (Type type : values()) {
+                if (type.key.equals(key)) return type;
+            }
+            throw new IllegalArgumentException("Unknown scheduler {" + key + "}");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+/**
+ * Receives the batch alarm. Alarms only keep the device awake while they're being delivered to a
+ * receiver, so this holds a wake lock until the {@link SyncService} has taken its own.
+ */
+public class SyncAlarmReceiver extends WakefulBroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        startWakefulService(context, SyncService.getSyncBatchIntent(context));
+    }
+}
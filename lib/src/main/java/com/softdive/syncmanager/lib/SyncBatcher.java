@@ -0,0 +1,98 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of when each listener is next due to sync, so that a single alarm can serve every
+ * listener that is due within a tolerance window of each other. When the alarm fires, every
+ * listener due before the end of the window is run in the same wake-up, some of them slightly
+ * early.
+ */
+class SyncBatcher {
+    private final long window;
+    private final Map<String, Long> dueTimes = new HashMap<>();
+
+    /**
+     * @param window the tolerance window in milliseconds. Listeners due up to this long after the
+     *               alarm fires are run with it.
+     */
+    SyncBatcher(long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative (" + window + ")");
+        }
+        this.window = window;
+    }
+
+    long getWindow() {
+        return window;
+    }
+
+    void schedule(String name, long time) {
+        dueTimes.put(name, time);
+    }
+
+    void unschedule(String name) {
+        dueTimes.remove(name);
+    }
+
+    void clear() {
+        dueTimes.clear();
+    }
+
+    /**
+     * Returns when the given listener is due, or 0 if it is not scheduled.
+     */
+    long getDueTime(String name) {
+        Long time = dueTimes.get(name);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * Returns the time the alarm should be set for, which is when the earliest listener is due, or
+     * 0 if no listener is scheduled.
+     */
+    long nextWakeTime() {
+        long earliest = 0;
+        for (long time : dueTimes.values()) {
+            if (earliest == 0 || time < earliest) {
+                earliest = time;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Removes and returns every listener that is due at or before the given time plus the window.
+     *
+     * @param time the time the alarm fired
+     * @return the names of the listeners to run
+     */
+    List<String> takeDue(long time) {
+        return takeDue(time, window);
+    }
+
+    /**
+     * Removes and returns every listener that is due at or before the given time plus the given
+     * window.
+     *
+     * @param time   the current time
+     * @param window the window in milliseconds
+     * @return the names of the listeners to run
+     */
+    List<String> takeDue(long time, long window) {
+        long end = time + window;
+        List<String> due = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : dueTimes.entrySet()) {
+            if (entry.getValue() <= end) {
+                due.add(entry.getKey());
+            }
+        }
+        for (String name : due) {
+            dueTimes.remove(name);
+        }
+        return due;
+    }
+}
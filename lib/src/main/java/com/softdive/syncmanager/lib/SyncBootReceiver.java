@@ -7,7 +7,7 @@ import android.content.Intent;
 public class SyncBootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
-        SyncService.start(context);
+        SyncService.boot(context);
     }
 
     public static void enable(Context context) {
@@ -0,0 +1,127 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the configuration of a single {@link SyncManager}. The defaults and persisted overrides are
+ * read once and combined into an immutable {@link SyncManager.Config} snapshot, which is swapped out
+ * whenever an edit is made. Reading the configuration is then just a volatile read.
+ */
+class SyncConfigStore {
+    private final SharedPreferences prefs;
+    private final String[] keys;
+    private final List<SyncManager.OnConfigChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this.
+    private SyncManager.Config defaults = SyncManager.Config.DEFAULT;
+    private final Map<SyncManager.Edit.Type, SyncManager.Edit> overrides = new EnumMap<>(SyncManager.Edit.Type.class);
+
+    private volatile SyncManager.Config current;
+
+    SyncConfigStore(Context context, String name) {
+        prefs = context.getSharedPreferences(SyncPreferences.NAME, Context.MODE_PRIVATE);
+
+        SyncManager.Edit.Type[] types = SyncManager.Edit.Type.values();
+        keys = new String[types.length];
+        for (SyncManager.Edit.Type type : types) {
+            String key = name + type.key;
+            keys[type.ordinal()] = key;
+            if (prefs.contains(key)) {
+                overrides.put(type, new SyncManager.Edit(type, read(key, type.valueType)));
+            }
+        }
+        current = build();
+    }
+
+    SyncManager.Config get() {
+        return current;
+    }
+
+    void addListener(SyncManager.OnConfigChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(SyncManager.OnConfigChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Persists the edits and publishes a new snapshot with them applied.
+     */
+    void edit(Iterable<SyncManager.Edit> edits) {
+        SyncManager.Config previous;
+        SyncManager.Config config;
+        synchronized (this) {
+            SharedPreferences.Editor editor = prefs.edit();
+            for (SyncManager.Edit edit : edits) {
+                write(editor, keys[edit.type.ordinal()], edit.value);
+                overrides.put(edit.type, edit);
+            }
+            editor.commit();
+            previous = current;
+            config = current = build();
+        }
+        notifyIfChanged(previous, config);
+    }
+
+    /**
+     * Changes the defaults, which are not persisted, and publishes a new snapshot.
+     */
+    void editDefault(Iterable<SyncManager.Edit> edits) {
+        SyncManager.Config previous;
+        SyncManager.Config config;
+        synchronized (this) {
+            for (SyncManager.Edit edit : edits) {
+                defaults = defaults.with(edit);
+            }
+            previous = current;
+            config = current = build();
+        }
+        notifyIfChanged(previous, config);
+    }
+
+    private SyncManager.Config build() {
+        SyncManager.Config config = defaults;
+        for (SyncManager.Edit edit : overrides.values()) {
+            config = config.with(edit);
+        }
+        return config;
+    }
+
+    private void notifyIfChanged(SyncManager.Config previous, SyncManager.Config config) {
+        if (config.equals(previous)) return;
+        for (SyncManager.OnConfigChangedListener listener : listeners) {
+            listener.onConfigChanged(config);
+        }
+    }
+
+    private Object read(String key, Class<?> valueType) {
+        if (valueType == Boolean.class) {
+            return prefs.getBoolean(key, false);
+        } else if (valueType == Long.class) {
+            return prefs.getLong(key, 0);
+        } else if (valueType == Integer.class) {
+            return prefs.getInt(key, 0);
+        } else {
+            return prefs.getString(key, null);
+        }
+    }
+
+    private static void write(SharedPreferences.Editor editor, String key, Object value) {
+        if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else {
+            editor.putString(key, (String) value);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs syncs for the {@link SyncService}. In concurrent mode syncs run on a bounded pool of worker
+ * threads, and each listener is limited to its own number of overlapping runs so that independent
+ * listeners can sync in parallel without a listener ever overlapping itself (with the default limit
+ * of 1). In serial mode syncs run one after another on the executor given for it, normally the
+ * caller's own single thread, so the caller can queue several syncs before the first one starts.
+ *
+ * <p> When more syncs are waiting than there are free threads, the one with the highest {@link
+ * Priority} starts next. A waiting sync gains a priority level every {@link #AGING_STEP}
+ * milliseconds, so low priority syncs are delayed but never starved. {@link Priority#HIGH} syncs
+ * may use one extra thread, so they don't wait for long running syncs to finish. </p>
+ */
+class SyncExecutor {
+    /**
+     * How long in milliseconds a waiting sync takes to gain a priority level.
+     */
+    static final long AGING_STEP = 10 * 1000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor pool;
+    private final Executor serial;
+    private final int threads;
+    // Everything below is guarded by this.
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final List<Task> pending = new ArrayList<>();
+    private int active;
+    // If the next serial task has been handed to the serial executor.
+    private boolean serialScheduled;
+    private final Runnable runNextSerial = new Runnable() {
+        @Override
+        public void run() {
+            Task next;
+            synchronized (SyncExecutor.this) {
+                serialScheduled = false;
+                next = takeNext(now());
+                if (next == null) return;
+                start(next);
+            }
+            next.run();
+        }
+    };
+
+    /**
+     * @param threads the maximum number of syncs to run at once, or 0 to run syncs serially
+     * @param serial  runs the syncs one at a time in serial mode
+     */
+    SyncExecutor(int threads, Executor serial) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads must not be negative (" + threads + ")");
+        }
+        this.threads = threads;
+        this.serial = serial;
+        if (threads == 0) {
+            pool = null;
+        } else {
+            // Tasks are only handed to the pool when a thread is free for them, so it never queues.
+            pool = new ThreadPoolExecutor(threads + 1, threads + 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new SyncThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    boolean isSerial() {
+        return pool == null;
+    }
+
+    /**
+     * Runs the task for the given listener. If the listener already has {@code limit} tasks
+     * running, or every thread is busy, the task waits until one of them finishes. In serial mode
+     * the task always waits for its turn on the serial executor, where the waiting task with the
+     * highest priority runs next.
+     *
+     * @param name     the name of the listener
+     * @param limit    the maximum number of tasks for the listener that may run at once
+     * @param priority the priority of the task
+     * @param task     the task
+     */
+    void execute(String name, int limit, Priority priority, Runnable task) {
+        synchronized (this) {
+            pending.add(new Task(name, limit < 1 ? 1 : limit, priority, task, now()));
+        }
+        dispatch();
+    }
+
+    /**
+     * Raises the priority of the listener's waiting tasks to at least the given priority.
+     */
+    void prioritize(String name, Priority priority) {
+        synchronized (this) {
+            for (Task task : pending) {
+                if (task.name.equals(name) && priority.compareTo(task.priority) > 0) {
+                    task.priority = priority;
+                }
+            }
+        }
+        // A high priority task may be able to start on the extra thread now.
+        dispatch();
+    }
+
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Starts as many waiting tasks as there are free threads for.
+     */
+    private void dispatch() {
+        if (pool == null) {
+            synchronized (this) {
+                // The task that's running schedules the next one when it's done.
+                if (serialScheduled || active > 0 || pending.isEmpty()) return;
+                serialScheduled = true;
+            }
+            // Picks the task only when it runs, so tasks queued meanwhile compete too.
+            serial.execute(runNextSerial);
+            return;
+        }
+
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            long now = now();
+            Task next;
+            while ((next = takeNext(now)) != null) {
+                start(next);
+                ready.add(next);
+            }
+        }
+        for (Task task : ready) {
+            pool.execute(task);
+        }
+    }
+
+    private void start(Task task) {
+        Slot slot = slots.get(task.name);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(task.name, slot);
+        }
+        slot.running++;
+        active++;
+    }
+
+    /**
+     * Removes and returns the waiting task that may start with the highest priority once aged, or
+     * null if none may start. Ties go to the one that has waited the longest.
+     */
+    private Task takeNext(long now) {
+        int best = -1;
+        long bestScore = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            Task task = pending.get(i);
+            int maxActive = pool == null ? 1 : task.priority == Priority.HIGH ? threads + 1 : threads;
+            if (active >= maxActive) continue;
+            Slot slot = slots.get(task.name);
+            if (slot != null && slot.running >= task.limit) continue;
+            long score = task.priority.ordinal() * AGING_STEP + (now - task.enqueued);
+            if (best < 0 || score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best < 0 ? null : pending.remove(best);
+    }
+
+    private void onTaskFinished(Task task) {
+        synchronized (this) {
+            active--;
+            Slot slot = slots.get(task.name);
+            slot.running--;
+            if (slot.running == 0) {
+                slots.remove(task.name);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns the time in milliseconds that waiting tasks age by.
+     */
+    long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class Slot {
+        int running;
+    }
+
+    private class Task implements Runnable {
+        final String name;
+        final int limit;
+        Priority priority;
+        final Runnable task;
+        final long enqueued;
+
+        Task(String name, int limit, Priority priority, Runnable task, long enqueued) {
+            this.name = name;
+            this.limit = limit;
+            this.priority = priority;
+            this.task = task;
+            this.enqueued = enqueued;
+        }
+
+        @Override
+        public void run() {
+            // The pool's threads run at a low priority to stay out of the app's way, except for
+            // syncs the user is waiting for.
+            boolean raise = pool != null && priority == Priority.HIGH;
+            if (raise) {
+                Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+            }
+            try {
+                task.run();
+            } finally {
+                if (raise) {
+                    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                }
+                onTaskFinished(this);
+            }
+        }
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SyncExecutor-" + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.softdive.syncmanager.lib;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Intent;
+import android.os.Build;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+/**
+ * Runs the jobs of the {@link JobSchedulerBackend} by handing them to the {@link SyncService}. The
+ * system only holds a wake lock while the job runs, so this holds one until the service has taken
+ * its own.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Intent intent = params.getJobId() == JobSchedulerBackend.NETWORK_JOB_ID
+                ? SyncService.getNetworkBackIntent(this)
+                : SyncService.getSyncBatchIntent(this);
+        WakefulBroadcastReceiver.startWakefulService(this, intent);
+        // The service does the work, so the job is done.
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
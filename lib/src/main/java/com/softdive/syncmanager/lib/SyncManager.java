@@ -1,13 +1,13 @@
 package com.softdive.syncmanager.lib;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
+import java.io.PrintWriter;
 import java.util.Arrays;
 
 public abstract class SyncManager {
     public static final String META_DATA_NAME = "com.softdive.syncmanager.lib";
-    private Config config;
+    private SyncConfigStore configStore;
 
     private boolean onCreateSuperFlag;
 
@@ -35,14 +35,63 @@ public abstract class SyncManager {
     }
 
     /**
-     * Called when the {@code SyncManager} is created. This may be only called once across several
-     * syncs depending on how long your app stays in memory.
+     * Sets where to push every {@code SyncManager}'s metrics, for example to ship them to your
+     * telemetry. Set it in your {@link android.app.Application#onCreate()} so no metrics are missed.
+     *
+     * @param exporter the exporter, or null to stop exporting
+     */
+    public static void setMetricsExporter(SyncMetrics.Exporter exporter) {
+        SyncMetrics.setExporter(exporter);
+    }
+
+    /**
+     * Returns metrics for the library as a whole rather than a single {@code SyncManager}: how long
+     * the device was kept awake for each batch of syncs. They're also passed to the {@link
+     * #setMetricsExporter(SyncMetrics.Exporter) exporter}, named {@link SyncMetrics#BATCHES}.
+     *
+     * @return the metrics
+     */
+    public static SyncMetrics.Snapshot batchMetrics() {
+        return SyncMetrics.batches().snapshot();
+    }
+
+    /**
+     * Writes the most recent scheduling decisions, like alarms set, syncs run and retries, one per
+     * line. This is cheap and always available, so it's suitable for attaching to bug reports. The
+     * same is printed by {@code adb shell dumpsys activity service SyncService}.
+     *
+     * @param writer where to write the trace
+     */
+    public static void dumpTrace(PrintWriter writer) {
+        SyncTrace.get().dump(writer);
+    }
+
+    /**
+     * Called when the {@code SyncManager} is created. This happens the first time it's needed to
+     * sync, not when your app starts, unless it's declared with {@code lazy="false"}. This may be
+     * only called once across several syncs depending on how long your app stays in memory.
      *
      * @param context the context
      */
     protected void onCreate(Context context) {
         onCreateSuperFlag = true;
-        config = new Config(context, getName());
+        if (configStore == null) {
+            configStore = new SyncConfigStore(context, getName());
+        }
+    }
+
+    /**
+     * Called when the {@code SyncManager} is released after going unused for a while. Release any
+     * resources you acquired in {@link #onCreate(android.content.Context)} here. A new instance
+     * will be created the next time it's needed.
+     *
+     * @param context the context
+     */
+    protected void onDestroy(Context context) {
+    }
+
+    final void attach(SyncConfigStore configStore) {
+        this.configStore = configStore;
     }
 
     final void ensureOnCreate() {
@@ -53,28 +102,91 @@ public abstract class SyncManager {
     }
 
     /**
-     * Called every time the system decides to sync. This is always called on a separate thread. You
-     * are also guaranteed to have a network connection at this point. If sync fails, you should
-     * throw an exception to notify {@code SyncManager} to retry properly.
+     * Called every time the system decides to sync. This is always called on a separate thread, and
+     * may run at the same time as other {@code SyncManager}s' syncs. It only overlaps with its own
+     * previous sync if {@link SyncManager.Edit#concurrency(int)} is greater than 1. You are also
+     * guaranteed to have a network connection at this point. If sync fails, you should throw an
+     * exception to notify {@code SyncManager} to retry properly.
+     *
+     * <p> To report more than success or failure, also override {@link
+     * #onSyncResult(android.content.Context)}. This is then no longer called, and can be left
+     * empty. </p>
      *
      * @param context the context
      * @throws Exception throw to notify of a sync failure
      */
     public abstract void onSync(Context context) throws Exception;
 
+    /**
+     * Called every time the system decides to sync, like {@link #onSync(android.content.Context)},
+     * but reports the outcome as a {@link SyncResult}. This lets you tell the scheduler more than
+     * success or failure, like when the server asks to back off, and report failures without
+     * throwing. The default calls {@link #onSync(android.content.Context)} and returns {@link
+     * SyncResult#success()}.
+     *
+     * @param context the context
+     * @return the result of the sync
+     * @throws Exception throw to notify of a sync failure, like returning {@link
+     *                   SyncResult#failure()}
+     */
+    public SyncResult onSyncResult(Context context) throws Exception {
+        onSync(context);
+        return SyncResult.success();
+    }
+
+    /**
+     * Called every time the system decides to sync, like {@link #onSyncResult(android.content.Context)},
+     * with a {@link SyncSession} for syncs too large to finish in one go. Save a cursor as you make
+     * progress, and once the session is over budget return {@link SyncSession#yield()} to continue
+     * from the cursor in a later wake-up. The default calls {@link
+     * #onSyncResult(android.content.Context)}.
+     *
+     * @param context the context
+     * @param session the session of this sync
+     * @return the result of the sync
+     * @throws Exception throw to notify of a sync failure. The saved cursor is kept, so the retry
+     *                   continues from it.
+     */
+    public SyncResult onSyncResult(Context context, SyncSession session) throws Exception {
+        return onSyncResult(context);
+    }
+
     /**
      * Returns the current configuration of the {@code SyncManager}. This is not valid before {@link
-     * #onCreate(android.content.Context)}. The returned configuration is read-only. To edit, use
-     * {@link #edit(SyncManager.Edit...)} instead.
+     * #onCreate(android.content.Context)}. The returned configuration is an immutable snapshot, it
+     * will not reflect later edits. To edit, use {@link #edit(SyncManager.Edit...)} instead.
      *
      * @return the configuration
      * @see SyncManager.Config
      */
     public Config config() {
-        if (config == null) {
+        return configStore().get();
+    }
+
+    /**
+     * Registers a listener that is notified every time the configuration changes, either through
+     * {@link #edit(SyncManager.Edit...)} or {@link #editDefault(SyncManager.Edit...)}.
+     *
+     * @param listener the listener
+     */
+    public void addOnConfigChangedListener(OnConfigChangedListener listener) {
+        configStore().addListener(listener);
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addOnConfigChangedListener(OnConfigChangedListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeOnConfigChangedListener(OnConfigChangedListener listener) {
+        configStore().removeListener(listener);
+    }
+
+    private SyncConfigStore configStore() {
+        if (configStore == null) {
             throw new IllegalStateException("Config has not been initialized. The config is initialized in super.onCreate().");
         }
-        return config;
+        return configStore;
     }
 
     /**
@@ -103,25 +215,7 @@ public abstract class SyncManager {
      * @see #editDefault(SyncManager.Edit...)
      */
     public void edit(Iterable<Edit> edits) {
-        if (config == null) {
-            throw new IllegalStateException("Config has not been initialized. The config is initialized in super.onCreate().");
-        }
-
-        SharedPreferences.Editor editor = config.prefs.edit();
-        for (Edit edit : edits) {
-            switch (edit.type) {
-                case ENABLED:
-                    editor.putBoolean(config.name + Config.CONFIG_ENABLED, (boolean) edit.value);
-                    break;
-                case EVERY:
-                    editor.putLong(config.name + Config.CONFIG_EVERY, (long) edit.value);
-                    break;
-                case RANGE:
-                    editor.putLong(config.name + Config.CONFIG_RANGE, (long) edit.value);
-                    break;
-            }
-        }
-        editor.commit();
+        configStore().edit(edits);
     }
 
     /**
@@ -145,23 +239,44 @@ public abstract class SyncManager {
      * @see #edit(SyncManager.Edit...)
      */
     public void editDefault(Iterable<Edit> edits) {
-        for (Edit edit : edits) {
-            switch (edit.type) {
-                case ENABLED:
-                    config.defaultEnabled = (boolean) edit.value;
-                    break;
-                case EVERY:
-                    config.defaultEvery = (long) edit.value;
-                    break;
-                case RANGE:
-                    config.defaultRange = (long) edit.value;
-                    break;
-            }
-        }
+        configStore().editDefault(edits);
+    }
+
+    /**
+     * Listener for changes to a {@link SyncManager}'s configuration.
+     */
+    public interface OnConfigChangedListener {
+        /**
+         * Called after the configuration changed.
+         *
+         * @param config the new configuration
+         */
+        void onConfigChanged(Config config);
+    }
+
+    /**
+     * The state of a {@link SyncManager}'s circuit breaker.
+     *
+     * @see Edit#circuitThreshold(int)
+     */
+    public enum CircuitState {
+        /**
+         * Syncs run normally.
+         */
+        CLOSED,
+        /**
+         * Too many syncs failed in a row, so syncs are skipped until the cooldown has passed.
+         */
+        OPEN,
+        /**
+         * The cooldown has passed. The next sync is a probe that decides if the circuit closes.
+         */
+        HALF_OPEN
     }
 
     /**
-     * Class for configuring how and when a {@link SyncManager} will sync.
+     * Class for configuring how and when a {@link SyncManager} will sync. Instances are immutable
+     * snapshots, so reading them is cheap and they never change underneath you.
      */
     public static final class Config {
         public static final long SECONDS = 1000;
@@ -173,32 +288,250 @@ public abstract class SyncManager {
         public static final boolean DEFAULT_ENABLED = true;
         public static final long DEFAULT_EVERY = 0;
         public static final long DEFAULT_RANGE = 5 * MINUTES;
+        public static final int DEFAULT_CONCURRENCY = 1;
+        public static final RetryPolicy DEFAULT_RETRY = RetryPolicy.DEFAULT;
+        public static final long DEFAULT_RETRY_DELAY = 500;
+        public static final int DEFAULT_CIRCUIT_THRESHOLD = 5;
+        public static final boolean DEFAULT_REQUIRES_UNMETERED = false;
+        public static final NetworkClass DEFAULT_MIN_NETWORK_CLASS = NetworkClass.SLOW;
+        public static final long DEFAULT_PREFER_UNMETERED = 0;
+        public static final long DEFAULT_BUDGET = 0;
+        public static final long DEFAULT_BUDGET_BYTES = 0;
+        public static final long DEFAULT_TIMEOUT = 0;
+        public static final Priority DEFAULT_PRIORITY = Priority.DEFAULT;
+        public static final long DEFAULT_DEBOUNCE = 0;
+        public static final boolean DEFAULT_REQUIRES_CHARGING = false;
+        public static final CatchUp DEFAULT_CATCH_UP = CatchUp.DEFAULT;
+        public static final long DEFAULT_CATCH_UP_WINDOW = 30 * MINUTES;
+
+        static final Config DEFAULT = new Config();
+
+        // Only ever assigned while building a new snapshot in with(Edit), never after it's published.
+        private boolean enabled = DEFAULT_ENABLED;
+        private long every = DEFAULT_EVERY;
+        private long range = DEFAULT_RANGE;
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private RetryPolicy retry = DEFAULT_RETRY;
+        private long retryDelay = DEFAULT_RETRY_DELAY;
+        private int circuitThreshold = DEFAULT_CIRCUIT_THRESHOLD;
+        private boolean requiresUnmetered = DEFAULT_REQUIRES_UNMETERED;
+        private NetworkClass minNetworkClass = DEFAULT_MIN_NETWORK_CLASS;
+        private long preferUnmetered = DEFAULT_PREFER_UNMETERED;
+        private long budget = DEFAULT_BUDGET;
+        private long budgetBytes = DEFAULT_BUDGET_BYTES;
+        private long timeout = DEFAULT_TIMEOUT;
+        private Priority priority = DEFAULT_PRIORITY;
+        private long debounce = DEFAULT_DEBOUNCE;
+        private boolean requiresCharging = DEFAULT_REQUIRES_CHARGING;
+        private CatchUp catchUp = DEFAULT_CATCH_UP;
+        private long catchUpWindow = DEFAULT_CATCH_UP_WINDOW;
+
+        private Config() {
+        }
 
-        private static final String CONFIG_ENABLED = "config_enabled";
-        private static final String CONFIG_EVERY = "config_every";
-        private static final String CONFIG_RANGE = "config_range";
-
-        private String name;
-        private boolean defaultEnabled = DEFAULT_ENABLED;
-        private long defaultEvery = DEFAULT_EVERY;
-        private long defaultRange = DEFAULT_RANGE;
-        private SharedPreferences prefs;
+        private Config(Config other) {
+            enabled = other.enabled;
+            every = other.every;
+            range = other.range;
+            concurrency = other.concurrency;
+            retry = other.retry;
+            retryDelay = other.retryDelay;
+            circuitThreshold = other.circuitThreshold;
+            requiresUnmetered = other.requiresUnmetered;
+            minNetworkClass = other.minNetworkClass;
+            preferUnmetered = other.preferUnmetered;
+            budget = other.budget;
+            budgetBytes = other.budgetBytes;
+            timeout = other.timeout;
+            priority = other.priority;
+            debounce = other.debounce;
+            requiresCharging = other.requiresCharging;
+            catchUp = other.catchUp;
+            catchUpWindow = other.catchUpWindow;
+        }
 
-        private Config(Context context, String name) {
-            this.name = name;
-            prefs = context.getSharedPreferences(SyncPreferences.NAME, Context.MODE_PRIVATE);
+        /**
+         * Returns a new snapshot with the given edit applied.
+         */
+        Config with(Edit edit) {
+            Config config = new Config(this);
+            switch (edit.type) {
+                case ENABLED:
+                    config.enabled = (boolean) edit.value;
+                    break;
+                case EVERY:
+                    config.every = (long) edit.value;
+                    break;
+                case RANGE:
+                    config.range = (long) edit.value;
+                    break;
+                case CONCURRENCY:
+                    config.concurrency = (int) edit.value;
+                    break;
+                case RETRY:
+                    config.retry = RetryPolicy.fromKey((String) edit.value);
+                    break;
+                case RETRY_DELAY:
+                    config.retryDelay = (long) edit.value;
+                    break;
+                case CIRCUIT_THRESHOLD:
+                    config.circuitThreshold = (int) edit.value;
+                    break;
+                case REQUIRES_UNMETERED:
+                    config.requiresUnmetered = (boolean) edit.value;
+                    break;
+                case MIN_NETWORK_CLASS:
+                    config.minNetworkClass = NetworkClass.fromKey((String) edit.value);
+                    break;
+                case PREFER_UNMETERED:
+                    config.preferUnmetered = (long) edit.value;
+                    break;
+                case BUDGET:
+                    config.budget = (long) edit.value;
+                    break;
+                case BUDGET_BYTES:
+                    config.budgetBytes = (long) edit.value;
+                    break;
+                case TIMEOUT:
+                    config.timeout = (long) edit.value;
+                    break;
+                case PRIORITY:
+                    config.priority = Priority.fromKey((String) edit.value);
+                    break;
+                case DEBOUNCE:
+                    config.debounce = (long) edit.value;
+                    break;
+                case REQUIRES_CHARGING:
+                    config.requiresCharging = (boolean) edit.value;
+                    break;
+                case CATCH_UP:
+                    config.catchUp = CatchUp.fromKey((String) edit.value);
+                    break;
+                case CATCH_UP_WINDOW:
+                    config.catchUpWindow = (long) edit.value;
+                    break;
+            }
+            return config;
         }
 
         public boolean enabled() {
-            return prefs.getBoolean(name + CONFIG_ENABLED, defaultEnabled);
+            return enabled;
         }
 
         public long every() {
-            return prefs.getLong(name + CONFIG_EVERY, defaultEvery);
+            return every;
         }
 
         public long range() {
-            return prefs.getLong(name + CONFIG_RANGE, defaultRange);
+            return range;
+        }
+
+        public int concurrency() {
+            return concurrency;
+        }
+
+        public RetryPolicy retry() {
+            return retry;
+        }
+
+        public long retryDelay() {
+            return retryDelay;
+        }
+
+        public int circuitThreshold() {
+            return circuitThreshold;
+        }
+
+        public boolean requiresUnmetered() {
+            return requiresUnmetered;
+        }
+
+        public NetworkClass minNetworkClass() {
+            return minNetworkClass;
+        }
+
+        public long preferUnmetered() {
+            return preferUnmetered;
+        }
+
+        public long budget() {
+            return budget;
+        }
+
+        public long budgetBytes() {
+            return budgetBytes;
+        }
+
+        public long timeout() {
+            return timeout;
+        }
+
+        public Priority priority() {
+            return priority;
+        }
+
+        public long debounce() {
+            return debounce;
+        }
+
+        public boolean requiresCharging() {
+            return requiresCharging;
+        }
+
+        public CatchUp catchUp() {
+            return catchUp;
+        }
+
+        public long catchUpWindow() {
+            return catchUpWindow;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Config)) return false;
+            Config other = (Config) o;
+            return enabled == other.enabled
+                    && every == other.every
+                    && range == other.range
+                    && concurrency == other.concurrency
+                    && retry == other.retry
+                    && retryDelay == other.retryDelay
+                    && circuitThreshold == other.circuitThreshold
+                    && requiresUnmetered == other.requiresUnmetered
+                    && minNetworkClass == other.minNetworkClass
+                    && preferUnmetered == other.preferUnmetered
+                    && budget == other.budget
+                    && budgetBytes == other.budgetBytes
+                    && timeout == other.timeout
+                    && priority == other.priority
+                    && debounce == other.debounce
+                    && requiresCharging == other.requiresCharging
+                    && catchUp == other.catchUp
+                    && catchUpWindow == other.catchUpWindow;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = enabled ? 1 : 0;
+            result = 31 * result + (int) (every ^ (every >>> 32));
+            result = 31 * result + (int) (range ^ (range >>> 32));
+            result = 31 * result + concurrency;
+            result = 31 * result + retry.hashCode();
+            result = 31 * result + (int) (retryDelay ^ (retryDelay >>> 32));
+            result = 31 * result + circuitThreshold;
+            result = 31 * result + (requiresUnmetered ? 1 : 0);
+            result = 31 * result + minNetworkClass.hashCode();
+            result = 31 * result + (int) (preferUnmetered ^ (preferUnmetered >>> 32));
+            result = 31 * result + (int) (budget ^ (budget >>> 32));
+            result = 31 * result + (int) (budgetBytes ^ (budgetBytes >>> 32));
+            result = 31 * result + (int) (timeout ^ (timeout >>> 32));
+            result = 31 * result + priority.hashCode();
+            result = 31 * result + (int) (debounce ^ (debounce >>> 32));
+            result = 31 * result + (requiresCharging ? 1 : 0);
+            result = 31 * result + catchUp.hashCode();
+            result = 31 * result + (int) (catchUpWindow ^ (catchUpWindow >>> 32));
+            return result;
         }
     }
 
@@ -206,14 +539,43 @@ public abstract class SyncManager {
      * Class for modifying the {@link SyncManager} configuration.
      */
     public static class Edit {
-        private static enum Type {
-            ENABLED, EVERY, RANGE
+        enum Type {
+            ENABLED("config_enabled", Boolean.class),
+            EVERY("config_every", Long.class),
+            RANGE("config_range", Long.class),
+            CONCURRENCY("config_concurrency", Integer.class),
+            // Persisted as the policy's key, so renaming a constant doesn't lose the setting.
+            RETRY("config_retry", String.class),
+            RETRY_DELAY("config_retry_delay", Long.class),
+            CIRCUIT_THRESHOLD("config_circuit_threshold", Integer.class),
+            REQUIRES_UNMETERED("config_requires_unmetered", Boolean.class),
+            MIN_NETWORK_CLASS("config_min_network_class", String.class),
+            PREFER_UNMETERED("config_prefer_unmetered", Long.class),
+            BUDGET("config_budget", Long.class),
+            BUDGET_BYTES("config_budget_bytes", Long.class),
+            TIMEOUT("config_timeout", Long.class),
+            PRIORITY("config_priority", String.class),
+            DEBOUNCE("config_debounce", Long.class),
+            REQUIRES_CHARGING("config_requires_charging", Boolean.class),
+            CATCH_UP("config_catch_up", String.class),
+            CATCH_UP_WINDOW("config_catch_up_window", Long.class);
+
+            /**
+             * The suffix of the key the value is persisted under.
+             */
+            final String key;
+            final Class<?> valueType;
+
+            Type(String key, Class<?> valueType) {
+                this.key = key;
+                this.valueType = valueType;
+            }
         }
 
-        private Type type;
-        private Object value;
+        final Type type;
+        final Object value;
 
-        private Edit(Type type, Object value) {
+        Edit(Type type, Object value) {
             this.type = type;
             this.value = value;
         }
@@ -309,5 +671,296 @@ public abstract class SyncManager {
         public static Edit range(long timeSpan, long timeSpanUnit) {
             return new Edit(Type.RANGE, timeSpan * timeSpanUnit);
         }
+
+        /**
+         * Sets how many syncs of the {@link SyncManager} may run at the same time. The default is 1,
+         * which means a sync never overlaps with a previous one that is still running. Syncs of
+         * different {@link SyncManager}s always may run in parallel unless the library is
+         * configured to run serially.
+         *
+         * @param limit the maximum number of overlapping syncs, at least 1
+         * @return the edit for chaining
+         */
+        public static Edit concurrency(int limit) {
+            if (limit < 1) {
+                throw new IllegalArgumentException("concurrency must be at least 1 (" + limit + ")");
+            }
+            return new Edit(Type.CONCURRENCY, limit);
+        }
+
+        /**
+         * Sets how long to wait before retrying a failed sync. The default is {@link
+         * RetryPolicy#EXPONENTIAL}.
+         *
+         * @param policy the retry policy
+         * @return the edit for chaining
+         */
+        public static Edit retry(RetryPolicy policy) {
+            return new Edit(Type.RETRY, policy.key);
+        }
+
+        /**
+         * Sets how long in milliseconds the {@link SyncManager} waits before its first retry. This
+         * is where {@link RetryPolicy#EXPONENTIAL} starts doubling from, and what {@link
+         * RetryPolicy#FIXED} waits every time. The default is half a second.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         */
+        public static Edit retryDelay(long timeSpan) {
+            if (timeSpan < 0) {
+                throw new IllegalArgumentException("retryDelay must not be negative (" + timeSpan + ")");
+            }
+            return new Edit(Type.RETRY_DELAY, timeSpan);
+        }
+
+        /**
+         * Sets how long the {@link SyncManager} waits before its first retry. This is a convince
+         * method that allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #retryDelay(long)
+         */
+        public static Edit retryDelay(long timeSpan, long timeSpanUnit) {
+            return retryDelay(timeSpan * timeSpanUnit);
+        }
+
+        /**
+         * Sets after how many consecutive failures the {@link SyncManager}'s circuit breaker opens.
+         * While open, syncs are skipped until a cooldown of {@link Config#every()}, but at least a
+         * minute, has passed. Then a single sync is tried again. The default is 5.
+         *
+         * @param failures the number of consecutive failures, or 0 to never open the circuit
+         * @return the edit for chaining
+         * @see SyncProxy#circuitState()
+         */
+        public static Edit circuitThreshold(int failures) {
+            if (failures < 0) {
+                throw new IllegalArgumentException("circuitThreshold must not be negative (" + failures + ")");
+            }
+            return new Edit(Type.CIRCUIT_THRESHOLD, failures);
+        }
+
+        /**
+         * Sets if the {@link SyncManager} only syncs on unmetered networks, like most Wi-Fi. Syncs
+         * due on a metered network wait until the device is on an unmetered one. The default is
+         * false.
+         *
+         * @param value true to only sync on unmetered networks
+         * @return the edit for chaining
+         */
+        public static Edit requiresUnmetered(boolean value) {
+            return new Edit(Type.REQUIRES_UNMETERED, value);
+        }
+
+        /**
+         * Sets the slowest network the {@link SyncManager} syncs on. Syncs due on a slower network
+         * wait until the device is on a fast enough one. The default is {@link NetworkClass#SLOW},
+         * which syncs on any network.
+         *
+         * @param networkClass the slowest network to sync on
+         * @return the edit for chaining
+         */
+        public static Edit minNetworkClass(NetworkClass networkClass) {
+            return new Edit(Type.MIN_NETWORK_CLASS, networkClass.key);
+        }
+
+        /**
+         * Sets how long in milliseconds a sync due on a metered network may wait for an unmetered
+         * one before running on the metered network anyway. The default is 0, which doesn't wait.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         */
+        public static Edit preferUnmetered(long timeSpan) {
+            return new Edit(Type.PREFER_UNMETERED, timeSpan);
+        }
+
+        /**
+         * Sets how long a sync due on a metered network may wait for an unmetered one. This is a
+         * convince method that allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #preferUnmetered(long)
+         */
+        public static Edit preferUnmetered(long timeSpan, long timeSpanUnit) {
+            return preferUnmetered(timeSpan * timeSpanUnit);
+        }
+
+        /**
+         * Sets how long in milliseconds a single sync should run before it yields the rest to a
+         * later wake-up. The default is 0, which doesn't limit it.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         * @see SyncSession#isOverBudget()
+         */
+        public static Edit budget(long timeSpan) {
+            if (timeSpan < 0) {
+                throw new IllegalArgumentException("budget must not be negative (" + timeSpan + ")");
+            }
+            return new Edit(Type.BUDGET, timeSpan);
+        }
+
+        /**
+         * Sets how long a single sync should run before it yields. This is a convince method that
+         * allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #budget(long)
+         */
+        public static Edit budget(long timeSpan, long timeSpanUnit) {
+            return budget(timeSpan * timeSpanUnit);
+        }
+
+        /**
+         * Sets how many bytes a single sync should transfer before it yields the rest to a later
+         * wake-up. The default is 0, which doesn't limit it.
+         *
+         * @param bytes the number of bytes
+         * @return the edit for chaining
+         * @see SyncSession#addBytes(long)
+         */
+        public static Edit budgetBytes(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("budgetBytes must not be negative (" + bytes + ")");
+            }
+            return new Edit(Type.BUDGET_BYTES, bytes);
+        }
+
+        /**
+         * Sets how long in milliseconds a single sync may run before it's cancelled. The sync's
+         * thread is interrupted and {@link SyncSession#isCancelled()} returns true, and the sync is
+         * retried like any other failure. The default is 0, which never cancels it.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         */
+        public static Edit timeout(long timeSpan) {
+            if (timeSpan < 0) {
+                throw new IllegalArgumentException("timeout must not be negative (" + timeSpan + ")");
+            }
+            return new Edit(Type.TIMEOUT, timeSpan);
+        }
+
+        /**
+         * Sets how long a single sync may run before it's cancelled. This is a convince method that
+         * allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #timeout(long)
+         */
+        public static Edit timeout(long timeSpan, long timeSpanUnit) {
+            return timeout(timeSpan * timeSpanUnit);
+        }
+
+        /**
+         * Sets the priority of the {@link SyncManager}'s scheduled syncs when more syncs are waiting
+         * than there are threads to run them. The default is {@link Priority#NORMAL}.
+         *
+         * @param priority the priority
+         * @return the edit for chaining
+         * @see SyncProxy#sync(Priority)
+         */
+        public static Edit priority(Priority priority) {
+            return new Edit(Type.PRIORITY, priority.key);
+        }
+
+        /**
+         * Sets how long in milliseconds {@link SyncProxy#syncInexact()} waits, on top of the random
+         * offset within the range, before syncing. Every request in that time collapses into the
+         * one sync, so a burst of push messages doesn't cause a burst of syncs. The default is 0.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         */
+        public static Edit debounce(long timeSpan) {
+            if (timeSpan < 0) {
+                throw new IllegalArgumentException("debounce must not be negative (" + timeSpan + ")");
+            }
+            return new Edit(Type.DEBOUNCE, timeSpan);
+        }
+
+        /**
+         * Sets how long {@link SyncProxy#syncInexact()} waits before syncing. This is a convince
+         * method that allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #debounce(long)
+         */
+        public static Edit debounce(long timeSpan, long timeSpanUnit) {
+            return debounce(timeSpan * timeSpanUnit);
+        }
+
+        /**
+         * Sets if the {@link SyncManager} only syncs while the device is charging. Syncs due on
+         * battery wait for the next regular time the device is charging. The default is false.
+         *
+         * @param value true to only sync while charging
+         * @return the edit for chaining
+         */
+        public static Edit requiresCharging(boolean value) {
+            return new Edit(Type.REQUIRES_CHARGING, value);
+        }
+
+        /**
+         * Sets what the {@link SyncManager} does about a sync that was due while the device was
+         * off. The default is {@link CatchUp#SKIP}, which waits for the next regular time.
+         *
+         * @param catchUp the catch-up policy
+         * @return the edit for chaining
+         */
+        public static Edit catchUp(CatchUp catchUp) {
+            return new Edit(Type.CATCH_UP, catchUp.key);
+        }
+
+        /**
+         * Sets the window after boot within which a {@link CatchUp#SPREAD} sync runs, at a random
+         * time. The default is 30 minutes.
+         *
+         * @param timeSpan the time span in milliseconds
+         * @return the edit for chaining
+         */
+        public static Edit catchUpWindow(long timeSpan) {
+            if (timeSpan < 0) {
+                throw new IllegalArgumentException("catchUpWindow must not be negative (" + timeSpan + ")");
+            }
+            return new Edit(Type.CATCH_UP_WINDOW, timeSpan);
+        }
+
+        /**
+         * Sets the window within which a {@link CatchUp#SPREAD} sync runs after boot. This is a
+         * convince method that allows you to specify a unit for easy readability.
+         *
+         * @param timeSpan     the time span, in a unit-dependent manner
+         * @param timeSpanUnit the unit, can be one of {@link Config#SECONDS}, {@link
+         *                     Config#MINUTES}, {@link Config#HOURS}, {@link Config#DAYS}, {@link
+         *                     Config#WEEKS}
+         * @return the edit for chaining
+         * @see #catchUpWindow(long)
+         */
+        public static Edit catchUpWindow(long timeSpan, long timeSpanUnit) {
+            return catchUpWindow(timeSpan * timeSpanUnit);
+        }
     }
 }
@@ -0,0 +1,342 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms describing how a {@link SyncManager} has been syncing since the process
+ * started. Recording only touches preallocated atomics, so it's cheap enough to do on every sync.
+ * Use {@link SyncProxy#metrics()} to read them, or {@link SyncManager#setMetricsExporter(Exporter)}
+ * to have them pushed to you.
+ */
+public final class SyncMetrics {
+    /**
+     * The number of histogram buckets. Bucket 0 counts values under 1 millisecond, bucket {@code i}
+     * counts values from 2^(i-1) up to 2^i milliseconds, and the last bucket counts everything
+     * longer.
+     */
+    public static final int BUCKETS = 32;
+
+    /**
+     * Receives metrics so they can be shipped elsewhere. It's called on a background thread once
+     * the library has finished its work, for each {@link SyncManager} whose metrics changed since
+     * the last call, never while a sync is running on the same thread.
+     */
+    public interface Exporter {
+        void export(String name, Snapshot snapshot);
+    }
+
+    /**
+     * The name {@link #batches()} is exported under.
+     */
+    public static final String BATCHES = "batches";
+
+    private static volatile Exporter sExporter;
+    private static final SyncMetrics sBatches = new SyncMetrics();
+
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray drift = new AtomicLongArray(BUCKETS);
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLongArray wakeLock = new AtomicLongArray(BUCKETS);
+    private final AtomicLong wakeLockTimeouts = new AtomicLong();
+    private final AtomicLong noNetwork = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong wakeUps = new AtomicLong();
+    private volatile int backoffLevel;
+    private volatile long backoff;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    SyncMetrics() {
+    }
+
+    static void setExporter(Exporter exporter) {
+        sExporter = exporter;
+    }
+
+    static Exporter getExporter() {
+        return sExporter;
+    }
+
+    /**
+     * Returns the library-wide metrics of batches of syncs, rather than of a single {@link
+     * SyncManager}. Only the wake lock metrics are recorded here.
+     */
+    static SyncMetrics batches() {
+        return sBatches;
+    }
+
+    void recordSync(long latencyMillis, SyncResult result) {
+        latency.incrementAndGet(bucket(latencyMillis));
+        switch (result.type) {
+            case SUCCESS:
+            case CONTINUE:
+                successes.incrementAndGet();
+                if (!result.changed) unchanged.incrementAndGet();
+                break;
+            case RETRY_AFTER:
+                throttled.incrementAndGet();
+                break;
+            default:
+                failures.incrementAndGet();
+                break;
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Records how late a sync started compared to when it was scheduled.
+     */
+    void recordDrift(long lateMillis) {
+        drift.incrementAndGet(bucket(lateMillis));
+        dirty.set(true);
+    }
+
+    /**
+     * Records a sync that ran past its timeout. It's also recorded as a failure by {@link
+     * #recordSync(long, SyncResult)}.
+     */
+    void recordTimeout() {
+        timeouts.incrementAndGet();
+        dirty.set(true);
+    }
+
+    /**
+     * Records a sync request that was collapsed into another run instead of running on its own.
+     */
+    void recordMerged() {
+        merged.incrementAndGet();
+        dirty.set(true);
+    }
+
+    /**
+     * Records how long the wake lock was held for a batch of syncs.
+     *
+     * @param timedOut true if the wake lock's timeout released it before the batch finished
+     */
+    void recordWakeLock(long heldMillis, boolean timedOut) {
+        wakeLock.incrementAndGet(bucket(heldMillis));
+        if (timedOut) wakeLockTimeouts.incrementAndGet();
+        dirty.set(true);
+    }
+
+    void recordNoNetwork() {
+        noNetwork.incrementAndGet();
+        dirty.set(true);
+    }
+
+    void recordWakeUp() {
+        wakeUps.incrementAndGet();
+        dirty.set(true);
+    }
+
+    /**
+     * Records a retry being scheduled after the given number of consecutive failures.
+     */
+    void recordRetry(int level, long delay) {
+        retries.incrementAndGet();
+        backoffLevel = level;
+        backoff = delay;
+        dirty.set(true);
+    }
+
+    void resetBackoff() {
+        if (backoffLevel == 0 && backoff == 0) return;
+        backoffLevel = 0;
+        backoff = 0;
+        dirty.set(true);
+    }
+
+    /**
+     * Returns true once after each change, so exporting can skip listeners that haven't synced.
+     */
+    boolean takeDirty() {
+        return dirty.getAndSet(false);
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    static int bucket(long millis) {
+        if (millis < 1) return 0;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    /**
+     * Returns the largest value in milliseconds counted by the given bucket, or {@link
+     * Long#MAX_VALUE} for the last one.
+     */
+    public static long bucketUpperBound(int bucket) {
+        if (bucket >= BUCKETS - 1) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    /**
+     * An immutable copy of a {@link SyncManager}'s metrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] latency;
+        private final long[] drift;
+        private final long successes;
+        private final long failures;
+        private final long unchanged;
+        private final long throttled;
+        private final long timeouts;
+        private final long merged;
+        private final long[] wakeLock;
+        private final long wakeLockTimeouts;
+        private final long noNetwork;
+        private final long retries;
+        private final long wakeUps;
+        private final int backoffLevel;
+        private final long backoff;
+
+        private Snapshot(SyncMetrics metrics) {
+            latency = copy(metrics.latency);
+            drift = copy(metrics.drift);
+            successes = metrics.successes.get();
+            failures = metrics.failures.get();
+            unchanged = metrics.unchanged.get();
+            throttled = metrics.throttled.get();
+            timeouts = metrics.timeouts.get();
+            merged = metrics.merged.get();
+            wakeLock = copy(metrics.wakeLock);
+            wakeLockTimeouts = metrics.wakeLockTimeouts.get();
+            noNetwork = metrics.noNetwork.get();
+            retries = metrics.retries.get();
+            wakeUps = metrics.wakeUps.get();
+            backoffLevel = metrics.backoffLevel;
+            backoff = metrics.backoff;
+        }
+
+        private static long[] copy(AtomicLongArray array) {
+            long[] values = new long[array.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = array.get(i);
+            }
+            return values;
+        }
+
+        /**
+         * Returns how long syncs took, as counts per bucket.
+         *
+         * @see SyncMetrics#BUCKETS
+         */
+        public long[] latencyHistogram() {
+            return latency.clone();
+        }
+
+        /**
+         * Returns how late syncs started compared to when their alarm was scheduled, as counts per
+         * bucket. Syncs run early to share a wake-up count as on time.
+         *
+         * @see SyncMetrics#BUCKETS
+         */
+        public long[] driftHistogram() {
+            return drift.clone();
+        }
+
+        public long successes() {
+            return successes;
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        /**
+         * Returns how many of the {@link #successes()} found nothing new.
+         *
+         * @see SyncResult#unchanged()
+         */
+        public long unchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Returns how many syncs the server asked to retry later.
+         *
+         * @see SyncResult#retryAfter(long)
+         */
+        public long throttled() {
+            return throttled;
+        }
+
+        /**
+         * Returns how many of the {@link #failures()} ran past their timeout.
+         *
+         * @see SyncManager.Edit#timeout(long)
+         */
+        public long timeouts() {
+            return timeouts;
+        }
+
+        /**
+         * Returns how many sync requests were collapsed into a run that was already queued,
+         * running or scheduled, instead of running on their own.
+         */
+        public long merged() {
+            return merged;
+        }
+
+        /**
+         * Returns how long the wake lock was held for each batch of syncs, as counts per bucket.
+         * Only recorded in the {@link SyncManager#batchMetrics() batch metrics}.
+         *
+         * @see SyncMetrics#BUCKETS
+         */
+        public long[] wakeLockHistogram() {
+            return wakeLock.clone();
+        }
+
+        /**
+         * Returns how many batches were still running when the wake lock timed out. Only recorded
+         * in the {@link SyncManager#batchMetrics() batch metrics}.
+         */
+        public long wakeLockTimeouts() {
+            return wakeLockTimeouts;
+        }
+
+        /**
+         * Returns how many syncs were due while there was no network.
+         */
+        public long noNetwork() {
+            return noNetwork;
+        }
+
+        /**
+         * Returns how many retries were scheduled after failed syncs.
+         */
+        public long retries() {
+            return retries;
+        }
+
+        /**
+         * Returns how many times this {@link SyncManager}'s alarm woke the device.
+         */
+        public long wakeUps() {
+            return wakeUps;
+        }
+
+        /**
+         * Returns the number of consecutive failures the current retry delay is based on, 0 if the
+         * last sync succeeded.
+         */
+        public int backoffLevel() {
+            return backoffLevel;
+        }
+
+        /**
+         * Returns the current retry delay in milliseconds, 0 if the last sync succeeded.
+         */
+        public long backoff() {
+            return backoff;
+        }
+    }
+}
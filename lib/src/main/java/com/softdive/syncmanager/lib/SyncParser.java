@@ -16,20 +16,126 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 class SyncParser {
-    private static Map<String, SyncManager> sListeners;
+    // By package name. There's only one app in a process, except when several are simulated in a
+    // test.
+    private static final Map<String, Map<String, LazyListener>> sListeners = new HashMap<>();
+    private static final Map<String, SyncSettings> sSettings = new HashMap<>();
+    private static volatile SyncRegistry.Factory sRegistryFactory;
 
-    static Map<String, SyncManager> parseListeners(Context context) {
-        if (sListeners != null) {
-            return sListeners;
+    static synchronized Map<String, LazyListener> parseListeners(Context context) {
+        parse(context);
+        return sListeners.get(context.getPackageName());
+    }
+
+    static synchronized SyncSettings parseSettings(Context context) {
+        parse(context);
+        return sSettings.get(context.getPackageName());
+    }
+
+    private static void parse(Context context) {
+        String packageName = context.getPackageName();
+        if (sListeners.containsKey(packageName)) {
+            return;
+        }
+
+        SyncRegistry registry = loadRegistry(context);
+        SyncWave.checkDependencies(registry.listeners());
+        Map<String, LazyListener> listeners = new HashMap<>();
+        for (SyncRegistry.ListenerSpec spec : registry.listeners()) {
+            listeners.put(spec.name, new LazyListener(context, registry, spec));
         }
+        sSettings.put(packageName, registry.settings());
+        sListeners.put(packageName, listeners);
+    }
 
-        sListeners = new HashMap<>();
+    /**
+     * Sets where the listeners are declared, for example a registry built in a test, and forgets
+     * the ones already loaded. Null restores the default of the generated registry or the xml
+     * resource.
+     */
+    static synchronized void setRegistryFactory(SyncRegistry.Factory factory) {
+        sRegistryFactory = factory;
+        sListeners.clear();
+        sSettings.clear();
+    }
+
+    /**
+     * Returns the registry generated at build time if there is one, otherwise parses it from the
+     * xml resource.
+     */
+    static SyncRegistry loadRegistry(Context context) {
+        SyncRegistry.Factory factory = sRegistryFactory;
+        if (factory != null) {
+            return factory.create(context);
+        }
+        try {
+            return (SyncRegistry) Class.forName(SyncRegistry.GENERATED_CLASS_NAME).newInstance();
+        } catch (ClassNotFoundException e) {
+            return parseRegistry(context);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Invalid generated registry", e);
+        }
+    }
+
+    private static SyncRegistry parseRegistry(Context context) {
+        List<SyncRegistry.ListenerSpec> specs = new ArrayList<>();
+        SyncSettings settings = new SyncSettings();
 
         try {
             XmlPullParser parser = context.getResources().getXml(getResource(context));
             while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
                 if (parser.getEventType() == XmlPullParser.START_TAG) {
-                    if (parser.getName().equals("listener")) {
+                    if (parser.getName().equals("timesync")) {
+                        String serialString = parser.getAttributeValue(null, "serial");
+                        if (serialString != null) {
+                            settings.serial = validatingParseBoolean(serialString);
+                        }
+
+                        String threadsString = parser.getAttributeValue(null, "threads");
+                        if (threadsString != null) {
+                            settings.threads = validatingParsePositiveInt(threadsString);
+                        }
+
+                        String batchWindowString = parser.getAttributeValue(null, "batchWindow");
+                        if (batchWindowString != null) {
+                            settings.batchWindow = parseUnitTimeSpan(batchWindowString);
+                        }
+
+                        String peerWindowString = parser.getAttributeValue(null, "peerWindow");
+                        if (peerWindowString != null) {
+                            settings.peerWindow = parseUnitTimeSpan(peerWindowString);
+                        }
+
+                        String evictAfterString = parser.getAttributeValue(null, "evictAfter");
+                        if (evictAfterString != null) {
+                            settings.evictAfter = parseUnitTimeSpan(evictAfterString);
+                        }
+
+                        String drainStaggerString = parser.getAttributeValue(null, "drainStagger");
+                        if (drainStaggerString != null) {
+                            settings.drainStagger = parseUnitTimeSpan(drainStaggerString);
+                        }
+
+                        String drainConcurrencyString = parser.getAttributeValue(null, "drainConcurrency");
+                        if (drainConcurrencyString != null) {
+                            settings.drainConcurrency = validatingParsePositiveInt(drainConcurrencyString);
+                        }
+
+                        String wakeLockTimeoutString = parser.getAttributeValue(null, "wakeLockTimeout");
+                        if (wakeLockTimeoutString != null) {
+                            settings.wakeLockTimeout = parseUnitTimeSpan(wakeLockTimeoutString);
+                        }
+
+                        String schedulerString = parser.getAttributeValue(null, "scheduler");
+                        if (schedulerString != null) {
+                            settings.scheduler = SchedulerBackend.Type.fromKey(schedulerString);
+                        }
+
+                        String bootDelayString = parser.getAttributeValue(null, "bootDelay");
+                        if (bootDelayString != null) {
+                            settings.bootDelay = parseUnitTimeSpan(bootDelayString);
+                        }
+                    } else if (parser.getName().equals("listener")) {
                         String className = parser.getAttributeValue(null, "name");
                         if (className == null) {
                             throw new IllegalArgumentException("Your <listener/> must have the attribute android:name=\"[CLASS_NAME]\"");
@@ -38,9 +144,23 @@ class SyncParser {
                             className = context.getPackageName() + className;
                         }
 
-                        SyncManager listener = createListener(className);
-                        listener.onCreate(context);
-                        listener.ensureOnCreate();
+                        boolean lazy = true;
+                        String lazyString = parser.getAttributeValue(null, "lazy");
+                        if (lazyString != null) {
+                            lazy = validatingParseBoolean(lazyString);
+                        }
+
+                        List<String> dependsOn = new ArrayList<>();
+                        String dependsOnString = parser.getAttributeValue(null, "dependsOn");
+                        if (dependsOnString != null) {
+                            for (String prerequisite : dependsOnString.split(",")) {
+                                prerequisite = prerequisite.trim();
+                                if (prerequisite.startsWith(".")) {
+                                    prerequisite = context.getPackageName() + prerequisite;
+                                }
+                                dependsOn.add(prerequisite);
+                            }
+                        }
 
                         List<SyncManager.Edit> edits = new ArrayList<>();
 
@@ -59,14 +179,87 @@ class SyncParser {
                             edits.add(SyncManager.Edit.range(parseUnitTimeSpan(rangeString)));
                         }
 
-                        listener.editDefault(edits);
+                        String concurrencyString = parser.getAttributeValue(null, "concurrency");
+                        if (concurrencyString != null) {
+                            edits.add(SyncManager.Edit.concurrency(validatingParsePositiveInt(concurrencyString)));
+                        }
+
+                        String retryString = parser.getAttributeValue(null, "retry");
+                        if (retryString != null) {
+                            edits.add(SyncManager.Edit.retry(RetryPolicy.fromKey(retryString)));
+                        }
+
+                        String retryDelayString = parser.getAttributeValue(null, "retryDelay");
+                        if (retryDelayString != null) {
+                            edits.add(SyncManager.Edit.retryDelay(parseUnitTimeSpan(retryDelayString)));
+                        }
+
+                        String circuitThresholdString = parser.getAttributeValue(null, "circuitThreshold");
+                        if (circuitThresholdString != null) {
+                            edits.add(SyncManager.Edit.circuitThreshold(validatingParseNonNegativeInt(circuitThresholdString)));
+                        }
+
+                        String requiresUnmeteredString = parser.getAttributeValue(null, "requiresUnmetered");
+                        if (requiresUnmeteredString != null) {
+                            edits.add(SyncManager.Edit.requiresUnmetered(validatingParseBoolean(requiresUnmeteredString)));
+                        }
 
-                        sListeners.put(listener.getName(), listener);
+                        String minNetworkClassString = parser.getAttributeValue(null, "minNetworkClass");
+                        if (minNetworkClassString != null) {
+                            edits.add(SyncManager.Edit.minNetworkClass(NetworkClass.fromKey(minNetworkClassString)));
+                        }
+
+                        String preferUnmeteredString = parser.getAttributeValue(null, "preferUnmetered");
+                        if (preferUnmeteredString != null) {
+                            edits.add(SyncManager.Edit.preferUnmetered(parseUnitTimeSpan(preferUnmeteredString)));
+                        }
+
+                        String budgetString = parser.getAttributeValue(null, "budget");
+                        if (budgetString != null) {
+                            edits.add(SyncManager.Edit.budget(parseUnitTimeSpan(budgetString)));
+                        }
+
+                        String budgetBytesString = parser.getAttributeValue(null, "budgetBytes");
+                        if (budgetBytesString != null) {
+                            edits.add(SyncManager.Edit.budgetBytes(validatingParseNonNegativeLong(budgetBytesString)));
+                        }
+
+                        String timeoutString = parser.getAttributeValue(null, "timeout");
+                        if (timeoutString != null) {
+                            edits.add(SyncManager.Edit.timeout(parseUnitTimeSpan(timeoutString)));
+                        }
+
+                        String priorityString = parser.getAttributeValue(null, "priority");
+                        if (priorityString != null) {
+                            edits.add(SyncManager.Edit.priority(Priority.fromKey(priorityString)));
+                        }
+
+                        String debounceString = parser.getAttributeValue(null, "debounce");
+                        if (debounceString != null) {
+                            edits.add(SyncManager.Edit.debounce(parseUnitTimeSpan(debounceString)));
+                        }
+
+                        String requiresChargingString = parser.getAttributeValue(null, "requiresCharging");
+                        if (requiresChargingString != null) {
+                            edits.add(SyncManager.Edit.requiresCharging(validatingParseBoolean(requiresChargingString)));
+                        }
+
+                        String catchUpString = parser.getAttributeValue(null, "catchUp");
+                        if (catchUpString != null) {
+                            edits.add(SyncManager.Edit.catchUp(CatchUp.fromKey(catchUpString)));
+                        }
+
+                        String catchUpWindowString = parser.getAttributeValue(null, "catchUpWindow");
+                        if (catchUpWindowString != null) {
+                            edits.add(SyncManager.Edit.catchUpWindow(parseUnitTimeSpan(catchUpWindowString)));
+                        }
+
+                        specs.add(new SyncRegistry.ListenerSpec(className, lazy, edits, dependsOn));
                     }
                 }
                 parser.next();
             }
-            return sListeners;
+            return new ParsedRegistry(settings, specs);
         } catch (IOException e) {
             throw new IllegalStateException(e);
         } catch (XmlPullParserException e) {
@@ -74,14 +267,6 @@ class SyncParser {
         }
     }
 
-    private static SyncManager createListener(String name) throws IllegalArgumentException {
-        try {
-            return (SyncManager) Class.forName(name).newInstance();
-        } catch (InstantiationException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
-            throw new IllegalArgumentException("Invalid SyncManager {" + name + "}", e);
-        }
-    }
-
     private static int getResource(Context context) {
         try {
             ApplicationInfo appInfo = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
@@ -106,8 +291,32 @@ class SyncParser {
         }
     }
 
+    private static int validatingParsePositiveInt(String input) throws NumberFormatException {
+        int value = Integer.parseInt(input);
+        if (value < 1) {
+            throw new NumberFormatException("Must be at least 1, for input string: " + input);
+        }
+        return value;
+    }
+
+    private static int validatingParseNonNegativeInt(String input) throws NumberFormatException {
+        int value = Integer.parseInt(input);
+        if (value < 0) {
+            throw new NumberFormatException("Must not be negative, for input string: " + input);
+        }
+        return value;
+    }
+
+    private static long validatingParseNonNegativeLong(String input) throws NumberFormatException {
+        long value = Long.parseLong(input);
+        if (value < 0) {
+            throw new NumberFormatException("Must not be negative, for input string: " + input);
+        }
+        return value;
+    }
+
     private static final Pattern timeSpanRegex = Pattern.compile("(\\d+) +(second|minute|hour|day|week)s?");
-    private static long parseUnitTimeSpan(String input) throws IllegalArgumentException {
+    static long parseUnitTimeSpan(String input) throws IllegalArgumentException {
         if (input == null) {
             throw new IllegalArgumentException("For input string: " + input);
         }
@@ -131,4 +340,36 @@ class SyncParser {
             return Long.parseLong(input);
         }
     }
+
+    /**
+     * A registry parsed from xml at runtime. Listeners are created through reflection.
+     */
+    private static class ParsedRegistry extends SyncRegistry {
+        private final SyncSettings settings;
+        private final List<ListenerSpec> listeners;
+
+        ParsedRegistry(SyncSettings settings, List<ListenerSpec> listeners) {
+            this.settings = settings;
+            this.listeners = listeners;
+        }
+
+        @Override
+        SyncSettings settings() {
+            return settings;
+        }
+
+        @Override
+        List<ListenerSpec> listeners() {
+            return listeners;
+        }
+
+        @Override
+        SyncManager create(String name) throws IllegalArgumentException {
+            try {
+                return (SyncManager) Class.forName(name).newInstance();
+            } catch (InstantiationException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
+                throw new IllegalArgumentException("Invalid SyncManager {" + name + "}", e);
+            }
+        }
+    }
 }
@@ -2,6 +2,8 @@ package com.softdive.syncmanager.lib;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.support.v4.content.WakefulBroadcastReceiver;
 
 public class SyncPowerReceiver extends WakefulBroadcastReceiver {
@@ -16,6 +18,14 @@ public class SyncPowerReceiver extends WakefulBroadcastReceiver {
         startWakefulService(context, SyncService.getPowerChangedIntent(context, connected));
     }
 
+    /**
+     * Returns true if the device is plugged in, from the sticky battery broadcast.
+     */
+    static boolean isCharging(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
     static void enable(Context context) {
         ReceiverUtils.enable(context, SyncPowerReceiver.class);
     }
@@ -3,16 +3,35 @@ package com.softdive.syncmanager.lib;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted state of the library. The per-listener scheduling state and sync cursors, which change
+ * on every sync, live in the {@link SyncStateFile}, the rest in preferences. If the file can't be
+ * opened, everything is kept in preferences.
+ */
 class SyncPreferences {
     static final String NAME = "com.softdive.syncmanager.SHARED_PREFS";
     private static final String SEED = "seed";
     private static final String POWER_CONNECTED = "power_connected";
-    private static final String LAST_FAILED_TIME_SPAN = "last_failed_time_span";
+    private static final String OFFLINE_QUEUE = "offline_queue";
+    private static final String CURSOR = SyncStateFile.CURSOR_SUFFIX;
 
     private SharedPreferences prefs;
+    // Null if the file couldn't be opened.
+    private SyncStateFile state;
 
     SyncPreferences(Context context) {
-        prefs = context.getSharedPreferences(NAME, Context.MODE_PRIVATE);
+        this(context.getSharedPreferences(NAME, Context.MODE_PRIVATE), SyncStateFile.get(context));
+    }
+
+    SyncPreferences(SharedPreferences prefs, SyncStateFile state) {
+        this.prefs = prefs;
+        this.state = state;
     }
 
     long getSeed() {
@@ -28,14 +47,118 @@ class SyncPreferences {
     }
 
     void setPowerConnected(boolean value) {
-        prefs.edit().putBoolean(POWER_CONNECTED, value).commit();
+        prefs.edit().putBoolean(POWER_CONNECTED, value).apply();
     }
 
     long getLastFailedTimeSpan(String name) {
-        return prefs.getLong(name + LAST_FAILED_TIME_SPAN, 0);
+        return getState(name, SyncStateFile.LAST_FAILED_TIME_SPAN);
     }
 
     void setLastFailedTimeSpan(String name, long timeSpan) {
-        prefs.edit().putLong(name + LAST_FAILED_TIME_SPAN, timeSpan).commit();
+        setState(name, SyncStateFile.LAST_FAILED_TIME_SPAN, timeSpan);
+    }
+
+    int getConsecutiveFailures(String name) {
+        return (int) getState(name, SyncStateFile.CONSECUTIVE_FAILURES);
+    }
+
+    void setConsecutiveFailures(String name, int failures) {
+        setState(name, SyncStateFile.CONSECUTIVE_FAILURES, failures);
+    }
+
+    long getCircuitOpenedAt(String name) {
+        return getState(name, SyncStateFile.CIRCUIT_OPENED_AT);
+    }
+
+    void setCircuitOpenedAt(String name, long time) {
+        setState(name, SyncStateFile.CIRCUIT_OPENED_AT, time);
+    }
+
+    /**
+     * Returns when the listener last synced successfully, 0 if it never did.
+     */
+    long getLastSuccessTime(String name) {
+        return getState(name, SyncStateFile.LAST_SUCCESS_TIME);
+    }
+
+    void setLastSuccessTime(String name, long time) {
+        setState(name, SyncStateFile.LAST_SUCCESS_TIME, time);
+    }
+
+    /**
+     * Returns when the listener last failed to sync, 0 if it never did.
+     */
+    long getLastFailureTime(String name) {
+        return getState(name, SyncStateFile.LAST_FAILURE_TIME);
+    }
+
+    void setLastFailureTime(String name, long time) {
+        setState(name, SyncStateFile.LAST_FAILURE_TIME, time);
+    }
+
+    /**
+     * Returns the offline queue, as listener name -> the time it was due. It's stored as a set of
+     * "time:name" strings.
+     */
+    Map<String, Long> getOfflineQueue() {
+        Set<String> entries = prefs.getStringSet(OFFLINE_QUEUE, Collections.<String>emptySet());
+        Map<String, Long> queue = new HashMap<>();
+        for (String entry : entries) {
+            int separator = entry.indexOf(':');
+            queue.put(entry.substring(separator + 1), Long.parseLong(entry.substring(0, separator)));
+        }
+        return queue;
+    }
+
+    void setOfflineQueue(Map<String, Long> queue) {
+        Set<String> entries = new HashSet<>();
+        for (Map.Entry<String, Long> entry : queue.entrySet()) {
+            entries.add(entry.getValue() + ":" + entry.getKey());
+        }
+        prefs.edit().putStringSet(OFFLINE_QUEUE, entries).apply();
+    }
+
+    String getCursor(String name) {
+        String cursor = state != null ? state.getCursor(name) : null;
+        return cursor != null ? cursor : prefs.getString(name + CURSOR, null);
+    }
+
+    /**
+     * Saves the cursor before returning, so it survives the process being killed right after.
+     * Cursors too long for the {@link SyncStateFile} go to the preferences instead.
+     */
+    void setCursor(String name, String cursor) {
+        if (state != null && state.setCursor(name, cursor)) {
+            // Drop a longer cursor saved before, only ever after the new one is saved.
+            if (prefs.contains(name + CURSOR)) {
+                prefs.edit().remove(name + CURSOR).commit();
+            }
+            return;
+        }
+        prefs.edit().putString(name + CURSOR, cursor).commit();
+        if (state != null) {
+            state.setCursor(name, null);
+        }
+    }
+
+    long getNextSyncTime(String name) {
+        return getState(name, SyncStateFile.NEXT_SYNC_TIME);
+    }
+
+    void setNextSyncTime(String name, long time) {
+        setState(name, SyncStateFile.NEXT_SYNC_TIME, time);
+    }
+
+    private long getState(String name, int field) {
+        if (state != null) return state.get(name, field);
+        return prefs.getLong(SyncStateFile.preferenceKey(name, field), 0);
+    }
+
+    private void setState(String name, int field, long value) {
+        if (state != null) {
+            state.set(name, field, value);
+        } else {
+            prefs.edit().putLong(SyncStateFile.preferenceKey(name, field), value).apply();
+        }
     }
 }
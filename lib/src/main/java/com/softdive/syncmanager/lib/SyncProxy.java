@@ -12,20 +12,33 @@ import java.util.Arrays;
 public final class SyncProxy {
     private Context context;
     private String name;
-    private SyncManager listener;
+    private LazyListener listener;
+    private SyncPreferences prefs;
 
     SyncProxy(Context context, String name) {
         this.context = context;
         this.name = name;
         listener = SyncParser.parseListeners(context).get(name);
+        prefs = new SyncPreferences(context);
     }
 
     /**
-     * Syncs immediately. This is useful for a response to a user action. Use this sparingly, as
-     * frequent syncs defeat the purpose of using this library.
+     * Syncs immediately. This is useful for a response to a user action, so it runs with {@link
+     * Priority#HIGH}, ahead of scheduled syncs. Use this sparingly, as frequent syncs defeat the
+     * purpose of using this library.
      */
     public void sync() {
-        SyncService.sync(context, name);
+        sync(Priority.HIGH);
+    }
+
+    /**
+     * Syncs immediately with the given priority.
+     *
+     * @param priority the priority of this sync
+     * @see #sync()
+     */
+    public void sync(Priority priority) {
+        SyncService.sync(context, name, priority);
     }
 
     /**
@@ -47,6 +60,64 @@ public final class SyncProxy {
         return listener.config();
     }
 
+    /**
+     * Gets the state of the {@link SyncManager}'s circuit breaker, which stops it from syncing
+     * after too many consecutive failures.
+     *
+     * @return the circuit state
+     * @see SyncManager.Edit#circuitThreshold(int)
+     */
+    public SyncManager.CircuitState circuitState() {
+        return CircuitBreaker.state(prefs, name, listener.config(), System.currentTimeMillis());
+    }
+
+    /**
+     * Gets when the {@link SyncManager} last synced successfully, including syncs that yielded to
+     * continue later.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if it never did
+     */
+    public long lastSuccessTime() {
+        return prefs.getLastSuccessTime(name);
+    }
+
+    /**
+     * Gets when a sync of the {@link SyncManager} last failed, for any reason.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if it never did
+     */
+    public long lastFailureTime() {
+        return prefs.getLastFailureTime(name);
+    }
+
+    /**
+     * Gets a snapshot of how the {@link SyncManager} has been syncing since the app started.
+     *
+     * @return the metrics
+     */
+    public SyncMetrics.Snapshot metrics() {
+        return listener.metrics().snapshot();
+    }
+
+    /**
+     * Registers a listener that is notified every time the configuration changes.
+     *
+     * @param configListener the listener
+     * @see SyncManager#addOnConfigChangedListener(SyncManager.OnConfigChangedListener)
+     */
+    public void addOnConfigChangedListener(SyncManager.OnConfigChangedListener configListener) {
+        listener.configStore().addListener(configListener);
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addOnConfigChangedListener(SyncManager.OnConfigChangedListener)}.
+     *
+     * @param configListener the listener
+     */
+    public void removeOnConfigChangedListener(SyncManager.OnConfigChangedListener configListener) {
+        listener.configStore().removeListener(configListener);
+    }
+
     /**
      * Modifies the current configuration for the {@link SyncManager}.
      *
@@ -54,7 +125,7 @@ public final class SyncProxy {
      * @see SyncManager#edit(SyncManager.Edit...)
      */
     public void edit(Iterable<SyncManager.Edit> edits) {
-        listener.edit(edits);
+        listener.configStore().edit(edits);
         SyncService.update(context, name);
     }
 
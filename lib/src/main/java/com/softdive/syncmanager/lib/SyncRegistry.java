@@ -0,0 +1,62 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the listeners an app declares and how to create them. Apps that apply
+ * {@code timesync.gradle} get a {@link #GENERATED_CLASS_NAME} registry generated and validated at
+ * build time, with direct constructor calls and pre-parsed durations. Otherwise the registry is
+ * parsed from the xml resource at runtime.
+ */
+abstract class SyncRegistry {
+    static final String GENERATED_CLASS_NAME = "com.softdive.syncmanager.lib.GeneratedSyncRegistry";
+
+    /**
+     * Creates the registry the listeners of an app are loaded from.
+     */
+    interface Factory {
+        SyncRegistry create(Context context);
+    }
+
+    /**
+     * Returns the library-wide settings from the root {@code <timesync>} tag.
+     */
+    abstract SyncSettings settings();
+
+    /**
+     * Returns every declared listener, in declaration order.
+     */
+    abstract List<ListenerSpec> listeners();
+
+    /**
+     * Creates a new instance of the named listener.
+     *
+     * @throws IllegalArgumentException if the listener can't be created
+     */
+    abstract SyncManager create(String name) throws IllegalArgumentException;
+
+    /**
+     * A declared listener: its name, whether it may be created lazily, the default configuration
+     * given by its attributes, and the listeners that must sync before it when due together.
+     */
+    static final class ListenerSpec {
+        final String name;
+        final boolean lazy;
+        final List<SyncManager.Edit> defaults;
+        final List<String> dependsOn;
+
+        ListenerSpec(String name, boolean lazy, List<SyncManager.Edit> defaults) {
+            this(name, lazy, defaults, Collections.<String>emptyList());
+        }
+
+        ListenerSpec(String name, boolean lazy, List<SyncManager.Edit> defaults, List<String> dependsOn) {
+            this.name = name;
+            this.lazy = lazy;
+            this.defaults = defaults;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * The outcome of a sync, returned from {@link SyncManager#onSyncResult(android.content.Context)}.
+ * Besides success and failure it lets the server steer when the next sync happens, for example to
+ * push devices back while it's overloaded, without throwing or shipping an app update.
+ */
+public final class SyncResult {
+    enum Type {
+        SUCCESS,
+        FAILURE,
+        RETRY_AFTER,
+        PERMANENT_FAILURE,
+        CONTINUE
+    }
+
+    private static final SyncResult CHANGED = new SyncResult(Type.SUCCESS, true, 0);
+    private static final SyncResult UNCHANGED = new SyncResult(Type.SUCCESS, false, 0);
+    private static final SyncResult FAILURE = new SyncResult(Type.FAILURE, false, 0);
+    private static final SyncResult PERMANENT_FAILURE = new SyncResult(Type.PERMANENT_FAILURE, false, 0);
+    static final SyncResult CONTINUE = new SyncResult(Type.CONTINUE, true, 0);
+
+    final Type type;
+    final boolean changed;
+    final long delay;
+
+    private SyncResult(Type type, boolean changed, long delay) {
+        this.type = type;
+        this.changed = changed;
+        this.delay = delay;
+    }
+
+    /**
+     * The sync succeeded and fetched new data. The next sync happens at the regular time.
+     *
+     * @return the result
+     */
+    public static SyncResult success() {
+        return CHANGED;
+    }
+
+    /**
+     * The sync succeeded, but there was nothing new. The next sync happens at the regular time.
+     *
+     * @return the result
+     */
+    public static SyncResult unchanged() {
+        return UNCHANGED;
+    }
+
+    /**
+     * The sync succeeded, and the next one should happen after the given time instead of at the
+     * regular time, for example because the server said when it will have new data.
+     *
+     * @param timeSpan how long until the next sync in milliseconds
+     * @return the result
+     */
+    public static SyncResult rescheduleIn(long timeSpan) {
+        if (timeSpan <= 0) {
+            throw new IllegalArgumentException("timeSpan must be positive (" + timeSpan + ")");
+        }
+        return new SyncResult(Type.SUCCESS, true, timeSpan);
+    }
+
+    /**
+     * The sync failed and should be retried according to the {@link RetryPolicy}. This is the same
+     * as throwing from {@link SyncManager#onSync(android.content.Context)}.
+     *
+     * @return the result
+     */
+    public static SyncResult failure() {
+        return FAILURE;
+    }
+
+    /**
+     * The server asked to wait before trying again, like with an HTTP Retry-After header. The sync
+     * is retried after the given time, spread over the configured range so that devices don't all
+     * come back at once. This doesn't count towards the circuit breaker.
+     *
+     * @param timeSpan how long to wait in milliseconds
+     * @return the result
+     */
+    public static SyncResult retryAfter(long timeSpan) {
+        if (timeSpan <= 0) {
+            throw new IllegalArgumentException("timeSpan must be positive (" + timeSpan + ")");
+        }
+        return new SyncResult(Type.RETRY_AFTER, false, timeSpan);
+    }
+
+    /**
+     * The server asked to wait before trying again. This is a convince method that allows you to
+     * specify a unit for easy readability.
+     *
+     * @param timeSpan     how long to wait, in a unit-dependent manner
+     * @param timeSpanUnit the unit, can be one of {@link SyncManager.Config#SECONDS}, {@link
+     *                     SyncManager.Config#MINUTES}, {@link SyncManager.Config#HOURS}, {@link
+     *                     SyncManager.Config#DAYS}, {@link SyncManager.Config#WEEKS}
+     * @return the result
+     * @see #retryAfter(long)
+     */
+    public static SyncResult retryAfter(long timeSpan, long timeSpanUnit) {
+        return retryAfter(timeSpan * timeSpanUnit);
+    }
+
+    /**
+     * The sync failed in a way retrying won't fix, like a rejected request. It isn't retried, and
+     * the next sync happens at the regular time.
+     *
+     * @return the result
+     */
+    public static SyncResult permanentFailure() {
+        return PERMANENT_FAILURE;
+    }
+}
@@ -1,21 +1,38 @@
 package com.softdive.syncmanager.lib;
 
-import android.app.AlarmManager;
-import android.app.IntentService;
-import android.app.PendingIntent;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.support.v4.content.WakefulBroadcastReceiver;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.softdive.syncmanager.lib.MathUtil.randomInRange;
-
-public class SyncService extends IntentService {
+public class SyncService extends Service {
     private static final String TYPE = "type";
     private static final int TYPE_START = 0;
     private static final int TYPE_STOP = 1;
@@ -24,22 +41,64 @@ public class SyncService extends IntentService {
     private static final int TYPE_SYNC_INEXACT = 4;
     private static final int TYPE_NETWORK_BACK = 5;
     private static final int TYPE_POWER_CHANGED = 6;
+    private static final int TYPE_SYNC_BATCH = 7;
+    private static final int TYPE_PEER_WAKE = 8;
+    private static final int TYPE_TIME_ZONE_CHANGED = 9;
+    private static final int TYPE_BOOT = 10;
 
     private static final String NAME = "name";
     private static final String POWER_CONNECTED = "power_connected";
+    private static final String PRIORITY = "priority";
+
+    static final long LEGACY_SEED = new Random(Settings.Secure.ANDROID_ID.hashCode()).nextLong();
+    // How long a yielded sync waits at most before continuing, if no other alarm comes sooner.
+    private static final long CONTINUE_DELAY = SyncManager.Config.MINUTES;
+    private static final long WATCHDOG_KEEP_ALIVE_SECONDS = 30;
 
-    private static final long BASE_RETRY_SPAN = 500;
-    private static final long MIN_RETRY_CAP = 5 * SyncManager.Config.SECONDS;
+    private static volatile WakeBus.Factory sWakeBusFactory;
+    private static volatile ConnectivityProvider.Factory sConnectivityFactory;
 
     private SyncPreferences prefs;
     private long seed;
-    private boolean powerConnected;
+    private SchedulerBackend scheduler;
+    private SyncBatcher batcher;
+    private long peerWindow;
+    private WakeBus wakeBus;
+    private ConnectivityProvider connectivity;
+    private boolean alarmChanged;
+    private final Random jitter = new Random();
+    // Listeners with a half-open circuit whose probe sync is running.
+    private final Set<String> probing = new HashSet<>();
+    // The runs of each listener that were handed to the executor and haven't finished.
+    private final Map<String, Flight> flights = new HashMap<>();
 
-    private Map<String, SyncManager> listeners;
+    private OfflineQueue offlineQueue;
+    private long drainStagger;
+    private int drainConcurrency;
+    // Missed syncs still to catch up on, the number currently running, and if the next one is
+    // waiting out the stagger.
+    private final Deque<String> draining = new ArrayDeque<>();
+    private int drainRunning;
+    private boolean drainScheduled;
 
-    public SyncService() {
-        super(SyncService.class.getName());
-    }
+    private Map<String, LazyListener> listeners;
+    private long evictAfter;
+    private long bootDelay;
+
+    // All intents and sync results are handled on the control thread, so the scheduling state above
+    // is only ever touched by one thread. The syncs themselves run on the executor.
+    private ScheduledExecutorService control;
+    private ExecutorService exporter;
+    // Cancels syncs that run past their timeout. It has its own thread since in serial mode syncs
+    // run on the control thread.
+    private ScheduledThreadPoolExecutor watchdog;
+    private BatchWakeLock batchWakeLock;
+    // The sessions of the syncs currently running, so they can be cancelled on stop.
+    private final Set<SyncSession> running = Collections.newSetFromMap(new ConcurrentHashMap<SyncSession, Boolean>());
+    private SyncExecutor executor;
+    private int lastStartId;
+    private int pendingWork;
+    private int stopCount;
 
     @Override
     public void onCreate() {
@@ -47,9 +106,141 @@ public class SyncService extends IntentService {
 
         prefs = new SyncPreferences(this);
         seed = findOrCreateSeed(prefs);
-        powerConnected = prefs.isPowerConnected();
 
         listeners = SyncParser.parseListeners(this);
+
+        SyncSettings settings = SyncParser.parseSettings(this);
+        scheduler = createScheduler(settings.scheduler);
+        evictAfter = settings.evictAfter;
+        bootDelay = settings.bootDelay;
+        batcher = new SyncBatcher(settings.batchWindow);
+        peerWindow = settings.peerWindow;
+        WakeBus.Factory wakeBusFactory = sWakeBusFactory;
+        wakeBus = wakeBusFactory != null ? wakeBusFactory.create(this) : new BroadcastWakeBus(this);
+        connectivity = createConnectivity(this);
+        for (String name : listeners.keySet()) {
+            long time = prefs.getNextSyncTime(name);
+            if (time > 0) {
+                batcher.schedule(name, time);
+            }
+        }
+        offlineQueue = new OfflineQueue(prefs);
+        drainStagger = settings.drainStagger;
+        drainConcurrency = settings.drainConcurrency;
+        control = Executors.newSingleThreadScheduledExecutor();
+        exporter = Executors.newSingleThreadExecutor();
+        executor = new SyncExecutor(settings.executorThreads(), control);
+        batchWakeLock = new BatchWakeLock(this, settings.wakeLockTimeout);
+        watchdog = new ScheduledThreadPoolExecutor(1);
+        watchdog.setKeepAliveTime(WATCHDOG_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        watchdog.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        control.shutdown();
+        executor.shutdown();
+        watchdog.shutdownNow();
+        batchWakeLock.release();
+        // Lets a pending export finish.
+        exporter.shutdown();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Dumps the scheduler trace, see {@code adb shell dumpsys activity service SyncService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncTrace.get().dump(writer);
+    }
+
+    @Override
+    public int onStartCommand(final Intent intent, int flags, final int startId) {
+        control.execute(new Runnable() {
+            @Override
+            public void run() {
+                lastStartId = startId;
+                pendingWork++;
+                try {
+                    int type = intent != null ? intent.getIntExtra(TYPE, 0) : 0;
+                    if (type == TYPE_SYNC_BATCH || type == TYPE_PEER_WAKE || type == TYPE_NETWORK_BACK) {
+                        // Take over from the receiver's wake lock, and hold ours until the last
+                        // sync of the batch is done and there's no work left.
+                        batchWakeLock.acquire();
+                        WakefulBroadcastReceiver.completeWakefulIntent(intent);
+                    }
+                    if (intent != null) {
+                        onHandleIntent(intent);
+                    }
+                } finally {
+                    finishWork();
+                }
+            }
+        });
+        return START_NOT_STICKY;
+    }
+
+    private void finishWork() {
+        if (alarmChanged) {
+            alarmChanged = false;
+            armWakeUp();
+        }
+        pendingWork--;
+        if (pendingWork == 0) {
+            if (evictAfter > 0) {
+                long now = SystemClock.elapsedRealtime();
+                for (LazyListener listener : listeners.values()) {
+                    listener.evictIfIdle(now, evictAfter);
+                }
+            }
+            batchWakeLock.release();
+            exportMetrics();
+            stopSelf(lastStartId);
+        }
+    }
+
+    /**
+     * Hands the metrics of every listener that synced since the last export to the exporter, on its
+     * own thread so a slow exporter never holds up syncing.
+     */
+    private void exportMetrics() {
+        final SyncMetrics.Exporter metricsExporter = SyncMetrics.getExporter();
+        if (metricsExporter == null) return;
+
+        final Map<String, SyncMetrics.Snapshot> snapshots = new HashMap<>();
+        for (LazyListener listener : listeners.values()) {
+            if (listener.metrics().takeDirty()) {
+                snapshots.put(listener.getName(), listener.metrics().snapshot());
+            }
+        }
+        if (SyncMetrics.batches().takeDirty()) {
+            snapshots.put(SyncMetrics.BATCHES, SyncMetrics.batches().snapshot());
+        }
+        if (snapshots.isEmpty()) return;
+
+        exporter.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, SyncMetrics.Snapshot> entry : snapshots.entrySet()) {
+                    metricsExporter.export(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    private void runOnControl(Runnable runnable) {
+        if (executor.isSerial()) {
+            // The sync already ran on the control thread.
+            runnable.run();
+        } else {
+            control.execute(runnable);
+        }
     }
 
     static void start(Context context) {
@@ -60,8 +251,12 @@ public class SyncService extends IntentService {
         context.startService(getStopIntent(context));
     }
 
-    static void sync(Context context, String name) {
-        context.startService(getSyncIntent(context, name));
+    static void boot(Context context) {
+        context.startService(getBootIntent(context));
+    }
+
+    static void sync(Context context, String name, Priority priority) {
+        context.startService(getSyncIntent(context, name, priority));
     }
 
     static void syncInexact(Context context, String name) {
@@ -76,6 +271,10 @@ public class SyncService extends IntentService {
         context.startService(getNetworkBackIntent(context));
     }
 
+    static void timeZoneChanged(Context context) {
+        context.startService(getTimeZoneChangedIntent(context));
+    }
+
     static void powerChanged(Context context, boolean connected) {
         context.startService(getPowerChangedIntent(context, connected));
     }
@@ -92,11 +291,25 @@ public class SyncService extends IntentService {
         return intent;
     }
 
-    static Intent getSyncIntent(Context context, String name) {
+    static Intent getBootIntent(Context context) {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.putExtra(TYPE, TYPE_BOOT);
+        return intent;
+    }
+
+    static Intent getSyncIntent(Context context, String name, Priority priority) {
         Intent intent = new Intent(context, SyncService.class);
         intent.setData(Uri.parse("timesync://" + name));
         intent.putExtra(TYPE, TYPE_SYNC);
         intent.putExtra(NAME, name);
+        intent.putExtra(PRIORITY, priority.key);
+        return intent;
+    }
+
+    static Intent getSyncBatchIntent(Context context) {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.setData(Uri.parse("timesync://batch"));
+        intent.putExtra(TYPE, TYPE_SYNC_BATCH);
         return intent;
     }
 
@@ -121,6 +334,39 @@ public class SyncService extends IntentService {
         return intent;
     }
 
+    /**
+     * Sets how services created from now on share wake-ups with other apps, for example an {@link
+     * InProcessWakeBus} in tests. Null restores the default of broadcasting to other installed apps.
+     */
+    static void setWakeBusFactory(WakeBus.Factory factory) {
+        sWakeBusFactory = factory;
+    }
+
+    /**
+     * Sets how services and receivers created from now on check the network, for example a fake
+     * network in tests. Null restores the default of asking the system.
+     */
+    static void setConnectivityFactory(ConnectivityProvider.Factory factory) {
+        sConnectivityFactory = factory;
+    }
+
+    static ConnectivityProvider createConnectivity(Context context) {
+        ConnectivityProvider.Factory factory = sConnectivityFactory;
+        return factory != null ? factory.create(context) : new AndroidConnectivityProvider(context);
+    }
+
+    static Intent getPeerWakeIntent(Context context) {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.putExtra(TYPE, TYPE_PEER_WAKE);
+        return intent;
+    }
+
+    static Intent getTimeZoneChangedIntent(Context context) {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.putExtra(TYPE, TYPE_TIME_ZONE_CHANGED);
+        return intent;
+    }
+
     static Intent getPowerChangedIntent(Context context, boolean connected) {
         Intent intent = new Intent(context, SyncService.class);
         intent.putExtra(TYPE, TYPE_POWER_CHANGED);
@@ -128,8 +374,7 @@ public class SyncService extends IntentService {
         return intent;
     }
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
+    private void onHandleIntent(Intent intent) {
         switch (intent.getIntExtra(TYPE, 0)) {
             case TYPE_START: {
                 onHandleStart();
@@ -139,17 +384,30 @@ public class SyncService extends IntentService {
                 onHandleStop();
                 break;
             }
+            case TYPE_BOOT: {
+                onHandleBoot();
+                break;
+            }
             case TYPE_SYNC: {
                 String name = intent.getStringExtra(NAME);
-                SyncManager listener = listeners.get(name);
+                LazyListener listener = listeners.get(name);
                 if (listener != null) {
-                    onHandleSync(listener);
+                    String priority = intent.getStringExtra(PRIORITY);
+                    onHandleSync(listener, priority != null ? Priority.fromKey(priority) : listener.config().priority());
                 }
                 break;
             }
+            case TYPE_SYNC_BATCH: {
+                onHandleSyncBatch();
+                break;
+            }
+            case TYPE_PEER_WAKE: {
+                onHandlePeerWake();
+                break;
+            }
             case TYPE_SYNC_INEXACT: {
                 String name = intent.getStringExtra(NAME);
-                SyncManager listener = listeners.get(name);
+                LazyListener listener = listeners.get(name);
                 if (listener != null) {
                     onHandleSyncInexact(listener);
                 }
@@ -157,16 +415,23 @@ public class SyncService extends IntentService {
             }
             case TYPE_UPDATE: {
                 String name = intent.getStringExtra(NAME);
-                SyncManager listener = listeners.get(name);
+                LazyListener listener = listeners.get(name);
                 if (listener != null) {
                     onHandleUpdate(listener);
                 }
                 break;
             }
             case TYPE_NETWORK_BACK: {
-                AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                for (SyncManager listener : listeners.values()) {
-                    add(alarmManager, listener);
+                onHandleNetworkBack();
+                break;
+            }
+            case TYPE_TIME_ZONE_CHANGED: {
+                // Syncs are aligned to local midnight, so they all move with the timezone.
+                SyncTrace.trace(SyncTrace.Event.TIME_ZONE_CHANGED);
+                EventCalculator.onTimeZoneChanged();
+                removeAll();
+                for (LazyListener listener : listeners.values()) {
+                    add(listener);
                 }
                 break;
             }
@@ -181,137 +446,679 @@ public class SyncService extends IntentService {
     }
 
     private void onHandleStart() {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        removeAll(alarmManager);
-        for (SyncManager listener : listeners.values()) {
-            add(alarmManager, listener);
+        SyncTrace.trace(SyncTrace.Event.SERVICE_START);
+        removeAll();
+        for (LazyListener listener : listeners.values()) {
+            add(listener);
         }
-        SyncPowerReceiver.enable(this);
+        scheduler.start();
         SyncBootReceiver.enable(this);
+        SyncTimeZoneReceiver.enable(this);
+        if (peerWindow > 0) {
+            SyncWakeReceiver.enable(this);
+        } else {
+            SyncWakeReceiver.disable(this);
+        }
+    }
+
+    /**
+     * Starts like {@link #onHandleStart()}, but first catches up on the syncs that were due while
+     * the device was off, as their policies allow.
+     */
+    private void onHandleBoot() {
+        long now = System.currentTimeMillis();
+        // The due times were loaded from before the reboot, which their wake-up didn't survive.
+        Map<String, Long> overdue = new HashMap<>();
+        for (String name : listeners.keySet()) {
+            long dueTime = batcher.getDueTime(name);
+            if (dueTime > 0 && dueTime <= now) {
+                overdue.put(name, dueTime);
+            }
+        }
+        onHandleStart();
+
+        Map<String, Long> catchUps = BootReplay.plan(overdue, listeners, now, bootDelay, drainStagger, jitter);
+        for (Map.Entry<String, Long> entry : catchUps.entrySet()) {
+            String name = entry.getKey();
+            long time = entry.getValue();
+            // The regular time covers it if it comes first.
+            long next = batcher.getDueTime(name);
+            if (next == 0 || time < next) {
+                SyncTrace.trace(SyncTrace.Event.CATCH_UP, name, time);
+                schedule(name, time);
+            }
+        }
     }
 
     private void onHandleStop() {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        removeAll(alarmManager);
-        SyncNetworkReceiver.disable(this);
-        SyncPowerReceiver.disable(this);
+        SyncTrace.trace(SyncTrace.Event.SERVICE_STOP);
+        stopCount++;
+        // Their results would be ignored anyway.
+        for (SyncSession session : running) {
+            session.cancel(false);
+        }
+        removeAll();
+        offlineQueue.clear();
+        draining.clear();
+        scheduler.stop();
         SyncBootReceiver.disable(this);
+        SyncTimeZoneReceiver.disable(this);
+        SyncWakeReceiver.disable(this);
     }
 
-    private void add(AlarmManager alarmManager, SyncManager listener) {
-        if (!listener.config().enabled()) return;
-
+    private void add(LazyListener listener) {
         SyncManager.Config config = listener.config();
+        if (!config.enabled()) return;
+
         long span = config.every();
         if (span > 0) {
             long time = calculateTime(span, config.range());
-            setAlarm(alarmManager, listener.getName(), time);
+            schedule(listener.getName(), time);
         }
     }
 
-    private void setAlarm(AlarmManager alarmManager, String name, long time) {
+    private void schedule(String name, long time) {
         if (time > 0) {
-            int alarmType = powerConnected ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC;
-            Intent intent = getSyncIntent(this, name);
-            PendingIntent pendingIntent = PendingIntent.getService(this, 0, intent, 0);
-            alarmManager.cancel(pendingIntent);
-            alarmManager.set(alarmType, time, pendingIntent);
+            batcher.schedule(name, time);
+            prefs.setNextSyncTime(name, time);
+            SyncTrace.trace(SyncTrace.Event.SCHEDULED, name, time);
+            alarmChanged = true;
+        }
+    }
+
+    private SchedulerBackend createScheduler(SchedulerBackend.Type type) {
+        boolean jobScheduler = type == SchedulerBackend.Type.AUTO
+                ? Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                : type == SchedulerBackend.Type.JOB_SCHEDULER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+        return jobScheduler ? new JobSchedulerBackend(this) : new AlarmBackend(this, prefs);
+    }
+
+    /**
+     * Sets the single wake-up for every listener in the next batch, replacing any previous one.
+     */
+    private void armWakeUp() {
+        long time = batcher.nextWakeTime();
+        if (time == 0) {
+            scheduler.cancelWakeUp();
+            SyncTrace.trace(SyncTrace.Event.ALARM_CANCELLED);
+            return;
+        }
+
+        // The batch may only wait for what every listener in it waits for anyway, and no longer
+        // than the most punctual one allows.
+        long flex = Long.MAX_VALUE;
+        boolean requiresUnmetered = true;
+        boolean requiresCharging = true;
+        for (LazyListener listener : listeners.values()) {
+            long dueTime = batcher.getDueTime(listener.getName());
+            if (dueTime == 0 || dueTime > time + batcher.getWindow()) continue;
+            SyncManager.Config config = listener.config();
+            flex = Math.min(flex, config.range());
+            requiresUnmetered &= config.requiresUnmetered();
+            requiresCharging &= config.requiresCharging();
+        }
+        if (flex == Long.MAX_VALUE) flex = 0;
+        scheduler.setWakeUp(time, flex, requiresUnmetered, requiresCharging);
+        SyncTrace.trace(SyncTrace.Event.ALARM_SET, null, time);
+    }
+
+    private void onHandleSyncBatch() {
+        long now = System.currentTimeMillis();
+        List<String> due = batcher.takeDue(now);
+        for (String name : due) {
+            // The ones already due are what the alarm was set for, the rest piggyback.
+            LazyListener listener = listeners.get(name);
+            if (listener != null && prefs.getNextSyncTime(name) <= now) {
+                listener.metrics().recordWakeUp();
+            }
+        }
+        runDue(due);
+        // Let other apps piggyback on this wake-up. Never do this for a peer wake-up, or apps would
+        // keep waking each other.
+        if (!due.isEmpty() && peerWindow > 0) {
+            wakeBus.publish();
         }
     }
 
-    private void onHandleSync(SyncManager listener) {
-        if (!listener.config().enabled()) return;
+    private void onHandlePeerWake() {
+        if (peerWindow <= 0) return;
+        runDue(batcher.takeDue(System.currentTimeMillis(), peerWindow));
+    }
 
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo netInfo = cm.getActiveNetworkInfo();
+    private void runDue(List<String> names) {
+        Map<String, Long> dueTimes = new HashMap<>();
+        for (String name : names) {
+            long dueTime = prefs.getNextSyncTime(name);
+            prefs.setNextSyncTime(name, 0);
+            if (listeners.containsKey(name)) {
+                dueTimes.put(name, dueTime);
+            }
+        }
+        alarmChanged = true;
+        runWave(new SyncWave(dueTimes, listeners));
+    }
 
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+    /**
+     * Starts every listener in the wave whose prerequisites are done. The rest are started as their
+     * prerequisites finish.
+     */
+    private void runWave(SyncWave wave) {
+        String name;
+        while ((name = wave.poll()) != null) {
+            LazyListener listener = listeners.get(name);
+            List<SyncWave> waves = new ArrayList<>();
+            waves.add(wave);
+            onHandleSync(listener, false, wave.getDueTime(name), listener.config().priority(), waves);
+            // Still ours if it wasn't started and didn't join a run in flight either.
+            onWavesSyncFinished(listener, waves, false, true);
+        }
+    }
+
+    /**
+     * Lets the waves waiting on a sync of the listener go on with its dependents.
+     */
+    private void onWavesSyncFinished(LazyListener listener, List<SyncWave> waves, boolean success, boolean running) {
+        for (SyncWave wave : waves) {
+            onWaveSyncFinished(wave, listener, success, running);
+            if (running) {
+                runWave(wave);
+            }
+        }
+    }
 
-        if (netInfo != null && netInfo.isConnectedOrConnecting()) {
-            try {
-                listener.onSync(this);
-                prefs.setLastFailedTimeSpan(listener.getName(), 0);
-                add(alarmManager, listener);
-            } catch (Exception e) {
-                onHandleFailureSyncError(alarmManager, listener);
+    /**
+     * Skips the dependents of a listener in the wave that didn't sync successfully. They're retried
+     * together with it, so they run in the same wave again.
+     */
+    private void onWaveSyncFinished(SyncWave wave, LazyListener listener, boolean success, boolean reschedule) {
+        long retryTime = batcher.getDueTime(listener.getName());
+        for (String name : wave.finish(listener.getName(), success)) {
+            SyncTrace.trace(SyncTrace.Event.SKIPPED, name);
+            if (!reschedule) continue;
+            if (retryTime > 0) {
+                schedule(name, retryTime);
+            } else {
+                add(listeners.get(name));
             }
+        }
+    }
+
+    private void onHandleSync(LazyListener listener, Priority priority) {
+        onHandleSync(listener, false, 0, priority, new ArrayList<SyncWave>());
+    }
+
+    /**
+     * Starts a sync of the listener if it can run now.
+     *
+     * @param drain    true if this catches up on a sync missed while offline
+     * @param dueTime  when the sync was scheduled for, or 0 if it wasn't
+     * @param priority the priority to run the sync with
+     * @param waves    the waves waiting on the sync; they're taken over, leaving the list empty, if
+     *                 the sync is started or joins a run in flight
+     * @return true if the sync was started, false if it was skipped, deferred or merged
+     */
+    private boolean onHandleSync(final LazyListener listener, final boolean drain, final long dueTime,
+                                 Priority priority, List<SyncWave> waves) {
+        String name = listener.getName();
+        SyncManager.Config config = listener.config();
+        long now = System.currentTimeMillis();
+        if (!config.enabled()) {
+            offlineQueue.remove(name);
+            return false;
+        }
+
+        SyncManager.CircuitState circuit = CircuitBreaker.state(prefs, name, config, now);
+        if (circuit == SyncManager.CircuitState.OPEN) {
+            // Come back when the cooldown is over to probe.
+            offlineQueue.remove(name);
+            schedule(name, prefs.getCircuitOpenedAt(name) + CircuitBreaker.cooldown(config.every()));
+            return false;
+        }
+
+        if (config.requiresCharging() && !SyncPowerReceiver.isCharging(this)) {
+            // The wake-up for the next regular time asks to be run while charging, if it can.
+            SyncTrace.trace(SyncTrace.Event.DEFERRED, name);
+            offlineQueue.remove(name);
+            add(listener);
+            return false;
+        }
+
+        if (!connectivity.isConnected()) {
+            onHandleFailureNoNetwork(listener);
+            return false;
+        }
+        long waitingSince = offlineQueue.getDueTime(name);
+        if (waitingSince == 0) waitingSince = now;
+        if (!NetworkConstraints.isSatisfied(config, connectivity, waitingSince, now)) {
+            deferForNetwork(listener, waitingSince);
+            return false;
+        }
+
+        offlineQueue.remove(name);
+        Flight existing = flights.get(name);
+        if (existing != null && (existing.waiting.get() > 0 || existing.runs >= config.concurrency())) {
+            mergeIntoFlight(listener, existing, priority, waves);
+            return false;
+        }
+
+        final boolean probe = circuit == SyncManager.CircuitState.HALF_OPEN;
+        if (probe && !probing.add(name)) {
+            // Only a single probe at a time, it reschedules the listener when it's done.
+            return false;
+        }
+
+        final Flight flight = existing != null ? existing : new Flight();
+        flights.put(name, flight);
+        flight.runs++;
+        flight.waiting.incrementAndGet();
+        final List<SyncWave> runWaves = new ArrayList<>(waves);
+        waves.clear();
+        flight.queued = runWaves;
+
+        final int stopCountAtStart = stopCount;
+        pendingWork++;
+        executor.execute(name, config.concurrency(), priority, new Runnable() {
+            @Override
+            public void run() {
+                // From here on, new requests need a run of their own.
+                flight.waiting.decrementAndGet();
+                SyncResult result = SyncResult.failure();
+                try {
+                    result = runSync(listener, dueTime);
+                } finally {
+                    // Whatever happened, the bookkeeping below must run or the service never stops.
+                    final SyncResult syncResult = result;
+                    runOnControl(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                // Don't re-arm alarms if the service was stopped while syncing.
+                                if (stopCount == stopCountAtStart) {
+                                    onSyncFinished(listener, syncResult);
+                                }
+                            } finally {
+                                if (probe) {
+                                    probing.remove(listener.getName());
+                                }
+                                if (drain) {
+                                    drainRunning--;
+                                    // Keep the stagger between starts, even when a sync finished
+                                    // as soon as it started.
+                                    if (drainStagger > 0 && !draining.isEmpty()) {
+                                        scheduleDrain();
+                                    } else {
+                                        drainNext();
+                                    }
+                                }
+                                boolean running = stopCount == stopCountAtStart;
+                                onFlightFinished(listener, flight, running);
+                                onWavesSyncFinished(listener, runWaves, syncResult.type == SyncResult.Type.SUCCESS, running);
+                                finishWork();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Runs a sync of the listener on the calling thread, creating the listener first if needed. A
+     * listener that fails to be created counts as a failed sync.
+     */
+    private SyncResult runSync(final LazyListener listener, long dueTime) {
+        SyncMetrics metrics = listener.metrics();
+        if (dueTime > 0) {
+            metrics.recordDrift(Math.max(0, System.currentTimeMillis() - dueTime));
+        }
+        SyncTrace.trace(SyncTrace.Event.SYNC_START, listener.getName());
+        long start = SystemClock.elapsedRealtime();
+        SyncResult result;
+        SyncManager manager = null;
+        SyncSession session = null;
+        ScheduledFuture<?> deadline = null;
+        try {
+            SyncManager.Config config = listener.config();
+            final SyncSession started = session = new SyncSession(prefs, listener.getName(), config);
+            session.start();
+            running.add(session);
+            if (config.timeout() > 0) {
+                deadline = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        SyncTrace.trace(SyncTrace.Event.TIMEOUT, listener.getName());
+                        started.cancel(true);
+                    }
+                }, config.timeout(), TimeUnit.MILLISECONDS);
+            }
+            // Creating the listener counts against the timeout too, it may hang as well.
+            manager = listener.acquire();
+            session.throwIfCancelled();
+            result = manager.onSyncResult(SyncService.this, session);
+            if (result == null) result = SyncResult.success();
+        } catch (Exception e) {
+            result = SyncResult.failure();
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (session != null) {
+                running.remove(session);
+                session.finish();
+            }
+            if (manager != null) {
+                listener.release();
+            }
+        }
+        if (session != null && session.isTimedOut()) {
+            // Even if it returned normally, whatever it did was cut short.
+            metrics.recordTimeout();
+            result = SyncResult.failure();
+        }
+        metrics.recordSync(SystemClock.elapsedRealtime() - start, result);
+        SyncTrace.trace(SyncTrace.Event.SYNC_END, listener.getName(), result.type.ordinal());
+        return result;
+    }
+
+    /**
+     * Collapses a request into the listener's runs in flight. A run that hasn't started yet will
+     * see whatever prompted the request, so the request is dropped. Otherwise one follow-up run is
+     * owed once a current run finishes, however many requests arrive in the meantime. Waves waiting
+     * on the request wait on the run that takes it over instead.
+     */
+    private void mergeIntoFlight(LazyListener listener, Flight flight, Priority priority, List<SyncWave> waves) {
+        listener.metrics().recordMerged();
+        SyncTrace.trace(SyncTrace.Event.MERGED, listener.getName());
+        if (flight.waiting.get() > 0) {
+            // Don't let an urgent request wait behind the queued run's lower priority.
+            executor.prioritize(listener.getName(), priority);
+            flight.queued.addAll(waves);
         } else {
-            onHandleFailureNoNetwork(alarmManager, listener);
+            if (flight.followUp == null || priority.compareTo(flight.followUp) > 0) {
+                flight.followUp = priority;
+            }
+            flight.followUpWaves.addAll(waves);
         }
+        waves.clear();
     }
 
-    private void onHandleSyncInexact(SyncManager listener) {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        long range = listener.config().range();
-        long time = calculateTime(0, range);
-        remove(alarmManager, listener);
-        setAlarm(alarmManager, listener.getName(), time);
+    private void onFlightFinished(LazyListener listener, Flight flight, boolean running) {
+        flight.runs--;
+        if (flight.runs == 0) {
+            flights.remove(listener.getName());
+        }
+        Priority followUp = flight.followUp;
+        flight.followUp = null;
+        List<SyncWave> waves = flight.followUpWaves;
+        flight.followUpWaves = new ArrayList<>();
+        if (followUp != null && running) {
+            onHandleSync(listener, false, 0, followUp, waves);
+        }
+        // Whatever waves the follow-up didn't take over have nothing left to wait on.
+        onWavesSyncFinished(listener, waves, false, running);
     }
 
-    private void onHandleUpdate(SyncManager listener) {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        remove(alarmManager, listener);
-        add(alarmManager, listener);
+    /**
+     * Puts off a sync until the device is on a network suitable for the listener. It's retried when
+     * the network changes, at the listener's next regular time, or when it has waited long enough
+     * to settle for a metered network, whichever comes first.
+     */
+    private void deferForNetwork(LazyListener listener, long waitingSince) {
+        String name = listener.getName();
+        SyncTrace.trace(SyncTrace.Event.DEFERRED, name);
+        offlineQueue.add(name, waitingSince);
+        // Moving to an unmetered network is the only change that can be waited for, if the current
+        // one is unmetered but too slow the listener retries on schedule.
+        if (!connectivity.isUnmetered()) {
+            scheduler.waitForNetwork(true);
+        }
+
+        add(listener);
+        long deadline = NetworkConstraints.meteredDeadline(listener.config(), connectivity, waitingSince);
+        long next = batcher.getDueTime(name);
+        if (deadline > 0 && (next == 0 || deadline < next)) {
+            schedule(name, deadline);
+        }
+    }
+
+    private void onHandleNetworkBack() {
+        SyncTrace.trace(SyncTrace.Event.NETWORK_RESTORED);
+        for (LazyListener listener : listeners.values()) {
+            add(listener);
+        }
+        draining.clear();
+        draining.addAll(offlineQueue.takeMissed(System.currentTimeMillis()));
+        drainNext();
+    }
+
+    /**
+     * Starts catching up on missed syncs, as many as allowed at once, waiting out the stagger
+     * between each one.
+     */
+    private void drainNext() {
+        while (!drainScheduled && drainRunning < drainConcurrency && !draining.isEmpty()) {
+            String name = draining.poll();
+            LazyListener listener = listeners.get(name);
+            if (listener == null) {
+                offlineQueue.remove(name);
+                continue;
+            }
+
+            drainRunning++;
+            if (!onHandleSync(listener, true, 0, listener.config().priority(), new ArrayList<SyncWave>())) {
+                drainRunning--;
+                continue;
+            }
+            if (drainStagger > 0 && !draining.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled) return;
+        drainScheduled = true;
+        final int stopCountAtStart = stopCount;
+        pendingWork++;
+        control.schedule(new Runnable() {
+            @Override
+            public void run() {
+                drainScheduled = false;
+                try {
+                    if (stopCount == stopCountAtStart) {
+                        drainNext();
+                    }
+                } finally {
+                    finishWork();
+                }
+            }
+        }, drainStagger, TimeUnit.MILLISECONDS);
+    }
+
+    private void onSyncFinished(LazyListener listener, SyncResult result) {
+        if (result.type == SyncResult.Type.SUCCESS || result.type == SyncResult.Type.CONTINUE) {
+            prefs.setLastSuccessTime(listener.getName(), System.currentTimeMillis());
+        } else {
+            prefs.setLastFailureTime(listener.getName(), System.currentTimeMillis());
+        }
+        switch (result.type) {
+            case SUCCESS:
+                resetBackoff(listener);
+                if (result.delay > 0) {
+                    schedule(listener.getName(), System.currentTimeMillis() + result.delay);
+                } else {
+                    add(listener);
+                }
+                break;
+            case FAILURE:
+                onHandleFailureSyncError(listener);
+                break;
+            case RETRY_AFTER:
+                onHandleRetryAfter(listener, result.delay);
+                break;
+            case PERMANENT_FAILURE:
+                // Retrying won't help, carry on as usual.
+                resetBackoff(listener);
+                add(listener);
+                break;
+            case CONTINUE:
+                resetBackoff(listener);
+                schedule(listener.getName(), continueTime(System.currentTimeMillis()));
+                break;
+        }
+    }
+
+    /**
+     * Returns when a yielded sync continues: with the next alarm if one is coming soon, so it
+     * doesn't cost an extra wake-up, otherwise shortly after.
+     */
+    private long continueTime(long now) {
+        long time = now + Math.max(batcher.getWindow(), CONTINUE_DELAY);
+        long next = batcher.nextWakeTime();
+        return next > now && next < time ? next : time;
+    }
+
+    private void resetBackoff(LazyListener listener) {
+        if (prefs.getConsecutiveFailures(listener.getName()) != 0
+                || prefs.getLastFailedTimeSpan(listener.getName()) != 0) {
+            prefs.setConsecutiveFailures(listener.getName(), 0);
+            prefs.setLastFailedTimeSpan(listener.getName(), 0);
+        }
+        listener.metrics().resetBackoff();
     }
 
-    private void onHandleFailureNoNetwork(AlarmManager alarmManager, SyncManager listener) {
-        removeAll(alarmManager);
-        SyncNetworkReceiver.enable(this);
+    /**
+     * The server is alive but asked to back off. Wait as long as it asked, plus this device's
+     * offset within the range so the fleet doesn't come back all at once. The backoff and circuit
+     * breaker are left alone, since this isn't an error.
+     */
+    private void onHandleRetryAfter(LazyListener listener, long delay) {
+        SyncTrace.trace(SyncTrace.Event.RETRY_AFTER, listener.getName(), delay);
+        long offset = MathUtil.randomInRange(seed, 0, listener.config().range());
+        schedule(listener.getName(), System.currentTimeMillis() + delay + offset);
     }
 
-    private void onHandleFailureSyncError(AlarmManager alarmManager, SyncManager listener) {
+    private void onHandleSyncInexact(LazyListener listener) {
         SyncManager.Config config = listener.config();
-        long span = config.every();
-        if (span < MIN_RETRY_CAP) span = MIN_RETRY_CAP;
-        long lastRetrySpan = prefs.getLastFailedTimeSpan(listener.getName());
-        long retrySpan = lastRetrySpan == 0 ? BASE_RETRY_SPAN : lastRetrySpan * 2;
-        if (retrySpan > span) retrySpan = span;
+        long time = calculateTime(0, config.range()) + config.debounce();
+        long dueTime = batcher.getDueTime(listener.getName());
+        if (dueTime > 0 && dueTime <= time) {
+            // A sync is already coming sooner and will see whatever prompted this one, so there's
+            // no need to re-arm the alarm.
+            listener.metrics().recordMerged();
+            SyncTrace.trace(SyncTrace.Event.MERGED, listener.getName());
+            return;
+        }
+        remove(listener);
+        schedule(listener.getName(), time);
+    }
+
+    private void onHandleUpdate(LazyListener listener) {
+        remove(listener);
+        add(listener);
+    }
+
+    private void onHandleFailureNoNetwork(LazyListener listener) {
+        listener.metrics().recordNoNetwork();
+        SyncTrace.trace(SyncTrace.Event.NETWORK_LOST, listener.getName());
+        // Remember what is missed while offline: this sync, and every one whose alarm is about to
+        // be cancelled. Anything not yet drained is still in the queue.
+        offlineQueue.add(listener.getName(), System.currentTimeMillis());
+        for (String name : listeners.keySet()) {
+            long dueTime = batcher.getDueTime(name);
+            if (dueTime > 0) {
+                offlineQueue.add(name, dueTime);
+            }
+        }
+        draining.clear();
+        removeAll();
+        scheduler.waitForNetwork(false);
+    }
+
+    private void onHandleFailureSyncError(LazyListener listener) {
+        String name = listener.getName();
+        SyncManager.Config config = listener.config();
+        long now = System.currentTimeMillis();
+        int failures = prefs.getConsecutiveFailures(name) + 1;
+        prefs.setConsecutiveFailures(name, failures);
+
+        if (config.circuitThreshold() > 0 && failures >= config.circuitThreshold()) {
+            // Open the circuit, or keep it open if this was a failed probe.
+            prefs.setCircuitOpenedAt(name, now);
+            long cooldown = CircuitBreaker.cooldown(config.every());
+            listener.metrics().recordRetry(failures, cooldown);
+            SyncTrace.trace(SyncTrace.Event.CIRCUIT_OPEN, name, cooldown);
+            schedule(name, now + cooldown);
+            return;
+        }
 
-        prefs.setLastFailedTimeSpan(listener.getName(), retrySpan);
-        long time = calculateTime(retrySpan, config.range());
-        setAlarm(alarmManager, listener.getName(), time);
+        RetryPolicy policy = config.retry();
+        long retrySpan = policy.retryDelay(failures, prefs.getLastFailedTimeSpan(name), config.retryDelay(), config.every(), jitter);
+        prefs.setLastFailedTimeSpan(name, retrySpan);
+        listener.metrics().recordRetry(failures, retrySpan);
+        SyncTrace.trace(SyncTrace.Event.RETRY, name, retrySpan);
+
+        schedule(name, policy.retryTime(now, retrySpan, config.range(), seed, null));
     }
 
-    private void removeAll(AlarmManager alarmManager) {
-        for (SyncManager listener : listeners.values()) {
-            remove(alarmManager, listener);
+    private void removeAll() {
+        for (LazyListener listener : listeners.values()) {
+            remove(listener);
         }
     }
 
-    private void remove(AlarmManager alarmManager, SyncManager listener) {
-        Intent intent = getSyncIntent(this, listener.getClass().getName());
-        PendingIntent pendingIntent = PendingIntent.getService(this, 0, intent, 0);
-        alarmManager.cancel(pendingIntent);
-        pendingIntent.cancel();
+    private void remove(LazyListener listener) {
+        if (batcher.getDueTime(listener.getName()) != 0) {
+            SyncTrace.trace(SyncTrace.Event.UNSCHEDULED, listener.getName());
+        }
+        batcher.unschedule(listener.getName());
+        prefs.setNextSyncTime(listener.getName(), 0);
+        alarmChanged = true;
     }
 
     private long calculateTime(long timeSpan, long range) {
-        long currentTime = System.currentTimeMillis();
-        long exactTime = EventCalculator.getNextEvent(currentTime, timeSpan);
-        long rangeOffset = randomInRange(seed, 0, range);
-        return exactTime + rangeOffset;
+        return EventCalculator.getNextSyncTime(System.currentTimeMillis(), timeSpan, range, seed);
     }
 
     private void onHandlePowerChanged(boolean connected) {
-        powerConnected = connected;
+        SyncTrace.trace(SyncTrace.Event.POWER_CHANGED, null, connected ? 1 : 0);
         prefs.setPowerConnected(connected);
         // Remove and re-add alarms to take into account the state change.
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        removeAll(alarmManager);
-        for (SyncManager listener : listeners.values()) {
-            add(alarmManager, listener);
+        removeAll();
+        for (LazyListener listener : listeners.values()) {
+            add(listener);
         }
     }
 
-    private long findOrCreateSeed(SyncPreferences prefs) {
+    static long findOrCreateSeed(SyncPreferences prefs) {
         long seed = prefs.getSeed();
-        if (seed != 0) return seed;
+        // Older versions derived the seed from the name of the ANDROID_ID setting rather than its
+        // value, so every install got this same seed. Replace it with a real one.
+        if (seed != 0 && seed != LEGACY_SEED) return seed;
 
-        // Use Random to evenly distribute values
-        seed = new Random(Settings.Secure.ANDROID_ID.hashCode()).nextLong();
+        SecureRandom random = new SecureRandom();
+        do {
+            seed = random.nextLong();
+        } while (seed == 0 || seed == LEGACY_SEED);
         prefs.setSeed(seed);
 
         return seed;
     }
 
+    /**
+     * The runs of a listener handed to the executor that haven't finished, for collapsing requests
+     * into them. Only touched on the control thread, except for {@link #waiting}.
+     */
+    private static final class Flight {
+        int runs;
+        // Runs that are still waiting for the executor, decremented by the run when it starts.
+        final AtomicInteger waiting = new AtomicInteger();
+        // The priority of the follow-up run owed once a run finishes, or null if none is owed.
+        Priority followUp;
+        // The waves waiting on the latest run to be queued, and on the follow-up run. Only touched
+        // on the control thread.
+        List<SyncWave> queued = new ArrayList<>();
+        List<SyncWave> followUpWaves = new ArrayList<>();
+    }
 }
@@ -0,0 +1,168 @@
+package com.softdive.syncmanager.lib;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A single run of {@link SyncManager#onSyncResult(android.content.Context, SyncSession)}. It lets
+ * a sync too large to finish in one go make progress in bounded chunks: save a cursor after each
+ * chunk, check {@link #isOverBudget()} between chunks, and return {@link #yield()} to continue from
+ * the cursor in a later wake-up. If the process dies or the sync fails halfway, the next attempt
+ * also starts from the last saved cursor instead of from scratch.
+ *
+ * <p> The cursor is kept until you change it, so when the sync is done you should either clear it
+ * with {@link #clearCursor()} or keep it as the starting point of the next incremental sync. </p>
+ *
+ * <p> The session is also the sync's cancellation token. When the sync runs past its {@link
+ * SyncManager.Edit#timeout(long) timeout} or the library is stopped, the session is cancelled and
+ * the sync's thread is interrupted. Blocking calls that respond to interrupts stop on their own,
+ * long-running loops should check {@link #isCancelled()} or call {@link #throwIfCancelled()}. </p>
+ */
+public final class SyncSession {
+    private final SyncPreferences prefs;
+    private final String name;
+    private final long budget;
+    private final long budgetBytes;
+    private final long start;
+    private volatile long bytes;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    // The thread running the sync, only while it's running. Guarded by this.
+    private Thread thread;
+
+    SyncSession(SyncPreferences prefs, String name, SyncManager.Config config) {
+        this.prefs = prefs;
+        this.name = name;
+        this.budget = config.budget();
+        this.budgetBytes = config.budgetBytes();
+        this.start = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns the cursor last saved with {@link #saveCursor(String)}, or null if there is none.
+     */
+    public String getCursor() {
+        return prefs.getCursor(name);
+    }
+
+    /**
+     * Saves how far the sync got. It's written to disk before this returns.
+     *
+     * @param cursor anything that tells you where to continue from, like a page token
+     */
+    public void saveCursor(String cursor) {
+        prefs.setCursor(name, cursor);
+    }
+
+    public void clearCursor() {
+        prefs.setCursor(name, null);
+    }
+
+    /**
+     * Counts bytes transferred by this sync towards its byte budget.
+     *
+     * @param count the number of bytes
+     */
+    public void addBytes(long count) {
+        bytes += count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns how long this sync has been running in milliseconds.
+     */
+    public long getElapsedTime() {
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Returns how much of the time budget is left in milliseconds, or {@link Long#MAX_VALUE} if the
+     * time isn't limited.
+     *
+     * @see SyncManager.Edit#budget(long)
+     */
+    public long getRemainingTime() {
+        if (budget <= 0) return Long.MAX_VALUE;
+        return Math.max(0, budget - getElapsedTime());
+    }
+
+    /**
+     * Returns true once this sync has used up its time or byte budget, and should save its cursor
+     * and {@link #yield()}.
+     */
+    public boolean isOverBudget() {
+        return (budget > 0 && getElapsedTime() >= budget)
+                || (budgetBytes > 0 && bytes >= budgetBytes);
+    }
+
+    /**
+     * Returns true if the sync timed out or the library was stopped, and it should give up.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws if the sync was cancelled, to bail out of a long-running sync.
+     *
+     * @throws CancellationException if {@link #isCancelled()}
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException(timedOut ? "sync timed out" : "sync cancelled");
+        }
+    }
+
+    /**
+     * Called on the thread about to run the sync.
+     */
+    synchronized void start() {
+        thread = Thread.currentThread();
+        if (cancelled) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Called on the thread that ran the sync once it returned, so a late cancel can't interrupt
+     * whatever the thread runs next.
+     */
+    void finish() {
+        synchronized (this) {
+            thread = null;
+        }
+        Thread.interrupted();
+    }
+
+    /**
+     * Cancels the sync and interrupts it if it's running.
+     *
+     * @param timeout true if it's cancelled because it ran past its timeout
+     */
+    synchronized void cancel(boolean timeout) {
+        if (cancelled) return;
+        timedOut = timeout;
+        cancelled = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Returns the result for a sync that made progress but isn't done. The rest runs in the next
+     * wake-up instead of waiting for the regular time. Save the cursor first.
+     *
+     * @return the result
+     */
+    public SyncResult yield() {
+        return SyncResult.CONTINUE;
+    }
+}
@@ -0,0 +1,70 @@
+package com.softdive.syncmanager.lib;
+
+/**
+ * Library-wide settings, declared as attributes on the root {@code <timesync>} tag.
+ */
+class SyncSettings {
+    static final int DEFAULT_THREADS = 3;
+    static final long DEFAULT_DRAIN_STAGGER = 2 * SyncManager.Config.SECONDS;
+    static final int DEFAULT_DRAIN_CONCURRENCY = 2;
+    static final long DEFAULT_WAKE_LOCK_TIMEOUT = 10 * SyncManager.Config.MINUTES;
+    static final long DEFAULT_BOOT_DELAY = 2 * SyncManager.Config.MINUTES;
+
+    /**
+     * If true, all syncs run one after another on a single thread.
+     */
+    boolean serial = false;
+
+    /**
+     * The maximum number of syncs that may run at once when not {@link #serial}.
+     */
+    int threads = DEFAULT_THREADS;
+
+    /**
+     * How far apart, in milliseconds, listeners may be due and still be run in the same wake-up.
+     */
+    long batchWindow = 0;
+
+    /**
+     * How soon, in milliseconds, a listener must be due to run when another app using this library
+     * wakes the device. 0, the default, disables sharing wake-ups with other apps.
+     */
+    long peerWindow = 0;
+
+    /**
+     * How long, in milliseconds, a lazily created listener may go without syncing before it's
+     * released again. 0 keeps listeners forever.
+     */
+    long evictAfter = 0;
+
+    /**
+     * How long, in milliseconds, to wait between starting the syncs that were missed while offline
+     * once the network is back.
+     */
+    long drainStagger = DEFAULT_DRAIN_STAGGER;
+
+    /**
+     * The maximum number of missed syncs to catch up on at once once the network is back.
+     */
+    int drainConcurrency = DEFAULT_DRAIN_CONCURRENCY;
+
+    /**
+     * The longest, in milliseconds, the wake lock held while a batch of syncs runs may be held.
+     */
+    long wakeLockTimeout = DEFAULT_WAKE_LOCK_TIMEOUT;
+
+    /**
+     * How the service is woken up for scheduled syncs.
+     */
+    SchedulerBackend.Type scheduler = SchedulerBackend.Type.AUTO;
+
+    /**
+     * How long, in milliseconds, after boot to wait before catching up on syncs missed while the
+     * device was off.
+     */
+    long bootDelay = DEFAULT_BOOT_DELAY;
+
+    int executorThreads() {
+        return serial ? 0 : threads;
+    }
+}
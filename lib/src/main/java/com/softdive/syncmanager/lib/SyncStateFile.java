@@ -0,0 +1,412 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The scheduling state of every listener, in a small memory-mapped file with one fixed-size record
+ * per listener. Updating a field writes a few bytes in place rather than rewriting a whole
+ * preferences file, and since the pages are shared with the kernel the write survives the process
+ * being killed right after.
+ *
+ * <p> Each record holds two copies of its fields and the listener's sync cursor, each with a
+ * sequence number and a CRC. An update goes to the older copy, checksum last, so a write torn by a
+ * power loss only loses that update: reads use the newest copy whose checksum matches. </p>
+ */
+class SyncStateFile {
+    static final String FILE_NAME = "com.softdive.syncmanager.state";
+
+    static final int NEXT_SYNC_TIME = 0;
+    static final int LAST_FAILED_TIME_SPAN = 1;
+    static final int CONSECUTIVE_FAILURES = 2;
+    static final int CIRCUIT_OPENED_AT = 3;
+    static final int LAST_SUCCESS_TIME = 4;
+    static final int LAST_FAILURE_TIME = 5;
+    private static final int FIELDS = 6;
+    // The preference key suffixes of the fields, by field. The first four were stored there by
+    // older versions, and all of them are while the file can't be opened.
+    private static final String[] PREFERENCE_SUFFIXES = {
+            "next_sync_time", "last_failed_time_span", "consecutive_failures", "circuit_opened_at",
+            "last_success_time", "last_failure_time"};
+    static final String CURSOR_SUFFIX = "cursor";
+
+    /**
+     * The longest cursor, in UTF-8 bytes, that fits in a record.
+     */
+    static final int CURSOR_SIZE = 256;
+    private static final int NO_CURSOR = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x53594e53;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    // A copy is its sequence number, the fields, the cursor's length and bytes, and a checksum over
+    // all of them. It adds up to a multiple of 8.
+    private static final int FIELDS_OFFSET = 8;
+    private static final int CURSOR_OFFSET = FIELDS_OFFSET + FIELDS * 8;
+    private static final int CHECKSUMMED_SIZE = CURSOR_OFFSET + 4 + CURSOR_SIZE;
+    private static final int COPY_SIZE = CHECKSUMMED_SIZE + 4;
+    // A record is the hash of the listener's name followed by two copies. A hash of 0 is free.
+    private static final int RECORD_SIZE = 8 + 2 * COPY_SIZE;
+    private static final int INITIAL_RECORDS = 16;
+    // Version 1 records held two copies of the first four fields, each with a sequence number and
+    // a checksum padded to 8 bytes, and no cursor.
+    private static final int V1_FIELDS = 4;
+    private static final int V1_CHECKSUMMED_SIZE = 8 + V1_FIELDS * 8;
+    private static final int V1_COPY_SIZE = V1_CHECKSUMMED_SIZE + 8;
+    private static final int V1_RECORD_SIZE = 8 + 2 * V1_COPY_SIZE;
+
+    private static SyncStateFile instance;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    // Offsets of the records in use, by the hash of their listener's name.
+    private final Map<Long, Integer> records = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[CHECKSUMMED_SIZE];
+    // The next copy of a record, built here before it's written.
+    private final ByteBuffer pending = ByteBuffer.allocate(CHECKSUMMED_SIZE);
+
+    /**
+     * Returns the state file shared by everything in the process, creating it on first use from
+     * the state kept in the preferences by older versions. Returns null if the file can't be
+     * opened, in which case the state stays in the preferences.
+     */
+    static synchronized SyncStateFile get(Context context) {
+        if (instance == null) {
+            File file = new File(context.getFilesDir(), FILE_NAME);
+            SharedPreferences prefs = context.getSharedPreferences(SyncPreferences.NAME, Context.MODE_PRIVATE);
+            try {
+                instance = open(file, prefs);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Opens the file, creating it if needed, and moves any state found in the preferences into it.
+     */
+    static SyncStateFile open(File file, SharedPreferences prefs) throws IOException {
+        if (!file.exists()) {
+            migrate(file, prefs);
+        } else {
+            upgrade(file);
+        }
+        SyncStateFile state = new SyncStateFile(file);
+        // Whatever was saved in the preferences while the file couldn't be opened is newer.
+        SharedPreferences.Editor editor = state.absorb(prefs);
+        if (editor != null) {
+            editor.apply();
+        }
+        return state;
+    }
+
+    private SyncStateFile(File file) throws IOException {
+        this.file = file;
+        map(Math.max(file.length(), HEADER_SIZE + INITIAL_RECORDS * RECORD_SIZE));
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            // Unreadable, start over rather than misread it. Older versions were upgraded before.
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+        for (int record = HEADER_SIZE; record + RECORD_SIZE <= buffer.capacity(); record += RECORD_SIZE) {
+            long hash = buffer.getLong(record);
+            if (hash != 0) {
+                records.put(hash, record);
+            }
+        }
+    }
+
+    /**
+     * Returns the key the field is stored under in the preferences.
+     */
+    static String preferenceKey(String name, int field) {
+        return name + PREFERENCE_SUFFIXES[field];
+    }
+
+    synchronized long get(String name, int field) {
+        int copy = newestCopy(name);
+        return copy < 0 ? 0 : buffer.getLong(copy + FIELDS_OFFSET + field * 8);
+    }
+
+    synchronized void set(String name, int field, long value) {
+        int newest = newestCopy(name);
+        if (newest < 0 && value == 0) return;
+        if (newest >= 0 && buffer.getLong(newest + FIELDS_OFFSET + field * 8) == value) return;
+        int record = findOrAllocate(hash(name));
+        // Only if the file couldn't grow. The state is rebuilt from the listener's config if lost.
+        if (record < 0) return;
+        load(newest);
+        pending.putLong(FIELDS_OFFSET + field * 8, value);
+        store(record, newest);
+    }
+
+    /**
+     * Returns the listener's cursor, or null if it has none here.
+     */
+    synchronized String getCursor(String name) {
+        int copy = newestCopy(name);
+        if (copy < 0) return null;
+        int length = buffer.getInt(copy + CURSOR_OFFSET);
+        if (length == NO_CURSOR) return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(copy + CURSOR_OFFSET + 4 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Saves the listener's cursor, null to clear it.
+     *
+     * @return false if it's longer than {@link #CURSOR_SIZE} bytes or the file couldn't grow, and
+     * nothing was saved
+     */
+    synchronized boolean setCursor(String name, String cursor) {
+        byte[] bytes = cursor != null ? cursor.getBytes(UTF_8) : null;
+        if (bytes != null && bytes.length > CURSOR_SIZE) return false;
+        int newest = newestCopy(name);
+        if (newest < 0 && bytes == null) return true;
+        int record = findOrAllocate(hash(name));
+        if (record < 0) return false;
+        load(newest);
+        pending.putInt(CURSOR_OFFSET, bytes != null ? bytes.length : NO_CURSOR);
+        if (bytes != null) {
+            pending.position(CURSOR_OFFSET + 4);
+            pending.put(bytes);
+        }
+        store(record, newest);
+        return true;
+    }
+
+    /**
+     * Returns the offset of the newest valid copy of the listener's record, or -1 if it has none.
+     */
+    private int newestCopy(String name) {
+        Integer record = records.get(hash(name));
+        if (record == null) return -1;
+        int newest = -1;
+        for (int copy = record + 8; copy < record + RECORD_SIZE; copy += COPY_SIZE) {
+            if (buffer.getInt(copy + CHECKSUMMED_SIZE) != checksum(copy)) continue;
+            if (newest < 0 || buffer.getLong(copy) > buffer.getLong(newest)) {
+                newest = copy;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Starts the next copy from the given one, or from an empty one if it's -1.
+     */
+    private void load(int copy) {
+        if (copy < 0) {
+            pending.clear();
+            for (int i = 0; i < CHECKSUMMED_SIZE; i++) {
+                pending.put(i, (byte) 0);
+            }
+            pending.putInt(CURSOR_OFFSET, NO_CURSOR);
+        } else {
+            read(copy, pending.array());
+        }
+    }
+
+    /**
+     * Writes the next copy over the older copy of the record, checksum last.
+     */
+    private void store(int record, int newest) {
+        int first = record + 8;
+        int target = newest == first ? first + COPY_SIZE : first;
+        pending.putLong(0, newest < 0 ? 1 : buffer.getLong(newest) + 1);
+        byte[] bytes = pending.array();
+        for (int i = 0; i < CHECKSUMMED_SIZE; i++) {
+            buffer.put(target + i, bytes[i]);
+        }
+        crc.reset();
+        crc.update(bytes);
+        buffer.putInt(target + CHECKSUMMED_SIZE, (int) crc.getValue());
+    }
+
+    private int checksum(int copy) {
+        read(copy, scratch);
+        crc.reset();
+        crc.update(scratch);
+        return (int) crc.getValue();
+    }
+
+    private void read(int copy, byte[] into) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(copy);
+        view.get(into, 0, CHECKSUMMED_SIZE);
+    }
+
+    /**
+     * Returns the offset of the record for the hash of a listener's name, allocating it if needed,
+     * or -1 if the file couldn't grow to fit it.
+     */
+    private int findOrAllocate(long hash) {
+        Integer existing = records.get(hash);
+        if (existing != null) return existing;
+        int record = HEADER_SIZE + records.size() * RECORD_SIZE;
+        if (record + RECORD_SIZE > buffer.capacity()) {
+            try {
+                map(buffer.capacity() * 2L);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        buffer.putLong(record, hash);
+        records.put(hash, record);
+        return record;
+    }
+
+    private void map(long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the file is closed.
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates the file from the state in the preferences. It's built under a temporary name and
+     * renamed once complete, so a crash halfway through doesn't leave a partial file behind.
+     */
+    private static void migrate(File file, SharedPreferences prefs) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        if (temp.exists() && !temp.delete()) {
+            throw new IOException("Could not delete " + temp);
+        }
+        SyncStateFile state = new SyncStateFile(temp);
+        SharedPreferences.Editor editor = state.absorb(prefs);
+        state.buffer.force();
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    /**
+     * Rewrites a file left by an older version in the current format, keeping every record. Like
+     * {@link #migrate(File, SharedPreferences)} the new file is built under a temporary name, so a
+     * crash halfway through leaves the old one to upgrade next time.
+     *
+     * @throws IOException if the file is from a newer version, which is left alone, or can't be
+     *                     rewritten
+     */
+    private static void upgrade(File file) throws IOException {
+        ByteBuffer old;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || raf.length() > Integer.MAX_VALUE) return;
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            old = ByteBuffer.wrap(bytes);
+        } finally {
+            raf.close();
+        }
+        if (old.getInt(0) != MAGIC || old.getInt(4) == VERSION) return;
+        if (old.getInt(4) != 1) {
+            throw new IOException(file + " has an unknown version " + old.getInt(4));
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        if (temp.exists() && !temp.delete()) {
+            throw new IOException("Could not delete " + temp);
+        }
+        SyncStateFile state = new SyncStateFile(temp);
+        CRC32 crc = new CRC32();
+        for (int record = HEADER_SIZE; record + V1_RECORD_SIZE <= old.capacity(); record += V1_RECORD_SIZE) {
+            long hash = old.getLong(record);
+            if (hash == 0) continue;
+            int newest = -1;
+            for (int copy = record + 8; copy < record + V1_RECORD_SIZE; copy += V1_COPY_SIZE) {
+                crc.reset();
+                crc.update(old.array(), copy, V1_CHECKSUMMED_SIZE);
+                if (old.getInt(copy + V1_CHECKSUMMED_SIZE) != (int) crc.getValue()) continue;
+                if (newest < 0 || old.getLong(copy) > old.getLong(newest)) {
+                    newest = copy;
+                }
+            }
+            if (newest < 0) continue;
+            int target = state.findOrAllocate(hash);
+            if (target < 0) {
+                throw new IOException("Could not grow " + temp);
+            }
+            state.load(-1);
+            for (int field = 0; field < V1_FIELDS; field++) {
+                state.pending.putLong(FIELDS_OFFSET + field * 8, old.getLong(newest + 8 + field * 8));
+            }
+            state.store(target, -1);
+        }
+        state.buffer.force();
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Copies the fields and cursors found in the preferences into the file, and returns an editor
+     * that removes them from the preferences, or null if there were none. Cursors too long for a
+     * record stay there.
+     */
+    private SharedPreferences.Editor absorb(SharedPreferences prefs) {
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            for (int field = 0; field < FIELDS; field++) {
+                if (key.endsWith(PREFERENCE_SUFFIXES[field]) && value instanceof Number) {
+                    String name = key.substring(0, key.length() - PREFERENCE_SUFFIXES[field].length());
+                    set(name, field, ((Number) value).longValue());
+                    if (get(name, field) == ((Number) value).longValue()) {
+                        editor = remove(editor, prefs, key);
+                    }
+                }
+            }
+            if (key.endsWith(CURSOR_SUFFIX) && value instanceof String) {
+                String name = key.substring(0, key.length() - CURSOR_SUFFIX.length());
+                if (setCursor(name, (String) value)) {
+                    editor = remove(editor, prefs, key);
+                }
+            }
+        }
+        return editor;
+    }
+
+    private static SharedPreferences.Editor remove(SharedPreferences.Editor editor, SharedPreferences prefs, String key) {
+        return (editor != null ? editor : prefs.edit()).remove(key);
+    }
+
+    private static long hash(String name) {
+        // 64-bit FNV-1a, so that distinct listener names don't collide in practice.
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,21 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+public class SyncTimeZoneReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // The service forgets the cached midnight before it reschedules.
+        SyncService.timeZoneChanged(context);
+    }
+
+    static void enable(Context context) {
+        ReceiverUtils.enable(context, SyncTimeZoneReceiver.class);
+    }
+
+    static void disable(Context context) {
+        ReceiverUtils.disable(context, SyncTimeZoneReceiver.class);
+    }
+}
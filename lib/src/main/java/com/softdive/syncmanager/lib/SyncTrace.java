@@ -0,0 +1,185 @@
+package com.softdive.syncmanager.lib;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size log of the most recent scheduler decisions, for working out after the fact why a
+ * device synced when it did. It's always on: recording writes into preallocated slots without
+ * locking or allocating, and the oldest events are overwritten once it's full.
+ *
+ * <p> Each slot is guarded by its sequence number. A writer claims the next sequence number,
+ * marks the slot as being written, fills it and then publishes the sequence number. A reader
+ * skips slots whose sequence number is not the same before and after reading them. </p>
+ */
+class SyncTrace {
+    enum Event {
+        SERVICE_START,
+        SERVICE_STOP,
+        /**
+         * A listener was scheduled, the value is its due time.
+         */
+        SCHEDULED,
+        UNSCHEDULED,
+        /**
+         * The batch alarm was set, the value is when it fires.
+         */
+        ALARM_SET,
+        ALARM_CANCELLED,
+        SYNC_START,
+        /**
+         * A sync request was collapsed into a run already queued, running or scheduled.
+         */
+        MERGED,
+        /**
+         * A sync was skipped because a listener it depends on didn't sync successfully.
+         */
+        SKIPPED,
+        /**
+         * The value is the ordinal of the {@link SyncResult.Type}.
+         */
+        SYNC_END,
+        /**
+         * The value is the retry delay.
+         */
+        RETRY,
+        /**
+         * The server asked to retry later, the value is the delay.
+         */
+        RETRY_AFTER,
+        CIRCUIT_OPEN,
+        /**
+         * A sync ran past its timeout and was cancelled.
+         */
+        TIMEOUT,
+        /**
+         * The sync was put off until a more suitable network.
+         */
+        DEFERRED,
+        /**
+         * The value is 1 if power was connected, 0 if disconnected.
+         */
+        POWER_CHANGED,
+        NETWORK_LOST,
+        NETWORK_RESTORED,
+        TIME_ZONE_CHANGED,
+        /**
+         * A sync missed while the device was off will be caught up on, the value is when.
+         */
+        CATCH_UP,
+        /**
+         * The value is the wake lock's timeout.
+         */
+        WAKE_LOCK_ACQUIRED,
+        /**
+         * The value is how long the wake lock was held.
+         */
+        WAKE_LOCK_RELEASED,
+        /**
+         * The name is the receiver's class.
+         */
+        RECEIVER_ENABLED,
+        RECEIVER_DISABLED
+    }
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final long WRITING = -1;
+    private static final Event[] EVENTS = Event.values();
+    private static final SyncTrace sTrace = new SyncTrace(DEFAULT_CAPACITY);
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray times;
+    private final AtomicIntegerArray events;
+    private final AtomicReferenceArray<String> names;
+    private final AtomicLongArray values;
+
+    /**
+     * @param capacity the number of events kept, a power of two
+     */
+    SyncTrace(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two (" + capacity + ")");
+        }
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, WRITING);
+        }
+        times = new AtomicLongArray(capacity);
+        events = new AtomicIntegerArray(capacity);
+        names = new AtomicReferenceArray<>(capacity);
+        values = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Returns the process-wide trace the {@link SyncService} records to.
+     */
+    static SyncTrace get() {
+        return sTrace;
+    }
+
+    static void trace(Event event, String name, long value) {
+        sTrace.record(event, name, value);
+    }
+
+    static void trace(Event event, String name) {
+        sTrace.record(event, name, 0);
+    }
+
+    static void trace(Event event) {
+        sTrace.record(event, null, 0);
+    }
+
+    void record(Event event, String name, long value) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        sequences.set(slot, WRITING);
+        times.set(slot, System.currentTimeMillis());
+        events.set(slot, event.ordinal());
+        names.set(slot, name);
+        values.set(slot, value);
+        sequences.set(slot, sequence);
+    }
+
+    /**
+     * Writes the recorded events, oldest first, one per line.
+     */
+    void dump(PrintWriter writer) {
+        long end = next.get();
+        long start = Math.max(0, end - (mask + 1));
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (sequences.get(slot) != sequence) continue;
+            long time = times.get(slot);
+            Event event = EVENTS[events.get(slot)];
+            String name = names.get(slot);
+            long value = values.get(slot);
+            // Overwritten by a newer event while reading it.
+            if (sequences.get(slot) != sequence) continue;
+
+            writer.print(format.format(new Date(time)));
+            writer.print(' ');
+            writer.print(event);
+            if (name != null) {
+                writer.print(' ');
+                writer.print(name);
+            }
+            if (value != 0) {
+                writer.print(' ');
+                writer.print(value);
+            }
+            writer.println();
+        }
+        writer.flush();
+    }
+}
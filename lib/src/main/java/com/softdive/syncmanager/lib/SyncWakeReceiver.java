@@ -0,0 +1,26 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+public class SyncWakeReceiver extends WakefulBroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String sender = BroadcastWakeBus.getSender(intent);
+        if (sender == null || sender.equals(context.getPackageName())) return;
+        // The receiver is exported, so only let apps signed like this one keep the device awake.
+        if (context.getPackageManager().checkSignatures(context.getPackageName(), sender) != PackageManager.SIGNATURE_MATCH) return;
+        // Hold the device awake until SyncService has its own wake lock for the piggybacked syncs.
+        startWakefulService(context, SyncService.getPeerWakeIntent(context));
+    }
+
+    static void enable(Context context) {
+        ReceiverUtils.enable(context, SyncWakeReceiver.class);
+    }
+
+    static void disable(Context context) {
+        ReceiverUtils.disable(context, SyncWakeReceiver.class);
+    }
+}
@@ -0,0 +1,147 @@
+package com.softdive.syncmanager.lib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The listeners due in the same wake-up, run in the order given by their {@code dependsOn}
+ * attributes. A listener starts once every prerequisite in the wave has synced successfully, so
+ * independent listeners run in parallel, and it's skipped if one of them didn't. Prerequisites
+ * that aren't due in this wave aren't waited for.
+ */
+class SyncWave {
+    private final Map<String, Long> dueTimes;
+    // Listeners still waiting, and which of their prerequisites they're waiting on.
+    private final Map<String, Set<String>> waitingOn = new HashMap<>();
+    private final Map<String, List<String>> dependents = new HashMap<>();
+    private final Deque<String> ready = new ArrayDeque<>();
+
+    /**
+     * @param dueTimes  the listeners in the wave, and when each was due
+     * @param listeners every listener, to look up their prerequisites
+     */
+    SyncWave(Map<String, Long> dueTimes, Map<String, LazyListener> listeners) {
+        this.dueTimes = dueTimes;
+        for (String name : dueTimes.keySet()) {
+            Set<String> prerequisites = new HashSet<>();
+            LazyListener listener = listeners.get(name);
+            if (listener != null) {
+                for (String prerequisite : listener.dependsOn()) {
+                    if (dueTimes.containsKey(prerequisite)) {
+                        prerequisites.add(prerequisite);
+                        List<String> list = dependents.get(prerequisite);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            dependents.put(prerequisite, list);
+                        }
+                        list.add(name);
+                    }
+                }
+            }
+            if (prerequisites.isEmpty()) {
+                ready.add(name);
+            } else {
+                waitingOn.put(name, prerequisites);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns a listener that may start now, or null if there is none.
+     */
+    String poll() {
+        return ready.poll();
+    }
+
+    long getDueTime(String name) {
+        Long time = dueTimes.get(name);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * Records that a listener in the wave finished. Its dependents may start once all their
+     * prerequisites succeeded, and are skipped as soon as one of them fails.
+     *
+     * @param success true if the sync succeeded, false if it failed or didn't run
+     * @return the listeners skipped because of this, including ones depending on them in turn
+     */
+    List<String> finish(String name, boolean success) {
+        List<String> direct = dependents.remove(name);
+        if (direct == null) return Collections.emptyList();
+
+        if (success) {
+            for (String dependent : direct) {
+                Set<String> prerequisites = waitingOn.get(dependent);
+                // Already skipped because another prerequisite failed.
+                if (prerequisites == null) continue;
+                prerequisites.remove(name);
+                if (prerequisites.isEmpty()) {
+                    waitingOn.remove(dependent);
+                    ready.add(dependent);
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        List<String> skipped = new ArrayList<>();
+        Deque<String> queue = new ArrayDeque<>(direct);
+        while (!queue.isEmpty()) {
+            String dependent = queue.poll();
+            if (waitingOn.remove(dependent) == null) continue;
+            skipped.add(dependent);
+            List<String> next = dependents.remove(dependent);
+            if (next != null) {
+                queue.addAll(next);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Checks that every listener only depends on declared listeners, and that there are no cycles.
+     *
+     * @throws IllegalArgumentException if the dependencies are invalid
+     */
+    static void checkDependencies(List<SyncRegistry.ListenerSpec> specs) throws IllegalArgumentException {
+        Map<String, SyncRegistry.ListenerSpec> byName = new HashMap<>();
+        for (SyncRegistry.ListenerSpec spec : specs) {
+            byName.put(spec.name, spec);
+        }
+        for (SyncRegistry.ListenerSpec spec : specs) {
+            for (String prerequisite : spec.dependsOn) {
+                if (!byName.containsKey(prerequisite)) {
+                    throw new IllegalArgumentException("Listener {" + spec.name + "} depends on undeclared listener {" + prerequisite + "}");
+                }
+            }
+        }
+
+        Set<String> done = new HashSet<>();
+        for (SyncRegistry.ListenerSpec spec : specs) {
+            checkCycle(spec, byName, new ArrayList<String>(), done);
+        }
+    }
+
+    private static void checkCycle(SyncRegistry.ListenerSpec spec, Map<String, SyncRegistry.ListenerSpec> byName,
+                                   List<String> path, Set<String> done) {
+        if (done.contains(spec.name)) return;
+        int index = path.indexOf(spec.name);
+        if (index >= 0) {
+            List<String> cycle = new ArrayList<>(path.subList(index, path.size()));
+            cycle.add(spec.name);
+            throw new IllegalArgumentException("Listeners depend on each other in a cycle: " + cycle);
+        }
+        path.add(spec.name);
+        for (String prerequisite : spec.dependsOn) {
+            checkCycle(byName.get(prerequisite), byName, path, done);
+        }
+        path.remove(path.size() - 1);
+        done.add(spec.name);
+    }
+}
@@ -0,0 +1,22 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+/**
+ * Lets apps using this library share wake-ups. When one app's alarm wakes the device, it publishes
+ * on the bus, and every other app runs its listeners that are due soon in the same wake-up instead
+ * of waking the device again later.
+ */
+interface WakeBus {
+    /**
+     * Creates the bus a {@link SyncService} publishes its wake-ups on.
+     */
+    interface Factory {
+        WakeBus create(Context context);
+    }
+
+    /**
+     * Tells every other app on the bus that this app has just woken up to sync.
+     */
+    void publish();
+}
@@ -0,0 +1,111 @@
+package com.softdive.syncmanager.lib;
+
+import android.app.AlarmManager;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class AlarmBackendTest {
+    private Context context;
+    private SyncPreferences prefs;
+    private ShadowAlarmManager alarmManager;
+    private AlarmBackend backend;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        prefs = new SyncPreferences(context);
+        alarmManager = shadowOf((AlarmManager) context.getSystemService(Context.ALARM_SERVICE));
+        backend = new AlarmBackend(context, prefs);
+    }
+
+    @Test
+    public void wakeUpIsAnAlarmToTheReceiver() {
+        prefs.setPowerConnected(true);
+        backend.setWakeUp(123456789L, 60000, false, false);
+
+        ShadowAlarmManager.ScheduledAlarm alarm = alarmManager.getNextScheduledAlarm();
+        assertEquals(AlarmManager.RTC_WAKEUP, alarm.type);
+        assertEquals(123456789L, alarm.triggerAtTime);
+        assertEquals(new ComponentName(context, SyncAlarmReceiver.class),
+                shadowOf(alarm.operation).getSavedIntent().getComponent());
+    }
+
+    @Test
+    public void wakeUpOnlyWakesTheDeviceWhileCharging() {
+        prefs.setPowerConnected(false);
+        backend.setWakeUp(123456789L, 60000, false, false);
+
+        assertEquals(AlarmManager.RTC, alarmManager.getNextScheduledAlarm().type);
+    }
+
+    @Test
+    public void wakeUpReplacesThePreviousOne() {
+        backend.setWakeUp(1000, 0, false, false);
+        backend.setWakeUp(2000, 0, false, false);
+
+        assertEquals(1, alarmManager.getScheduledAlarms().size());
+        assertEquals(2000, alarmManager.getNextScheduledAlarm().triggerAtTime);
+    }
+
+    @Test
+    public void cancelWakeUpRemovesTheAlarm() {
+        backend.setWakeUp(1000, 0, false, false);
+        backend.cancelWakeUp();
+
+        assertNull(alarmManager.getNextScheduledAlarm());
+    }
+
+    @Test
+    public void waitsForTheNetworkWithTheReceiver() {
+        backend.waitForNetwork(true);
+
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_ENABLED, enabledSetting(SyncNetworkReceiver.class));
+    }
+
+    @Test
+    public void startCancelsJobsLeftByTheJobScheduler() {
+        JobSchedulerBackend jobs = new JobSchedulerBackend(context);
+        jobs.setWakeUp(System.currentTimeMillis() + 60000, 0, false, false);
+        jobs.waitForNetwork(false);
+
+        backend.start();
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        assertTrue(jobScheduler.getAllPendingJobs().isEmpty());
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_ENABLED, enabledSetting(SyncPowerReceiver.class));
+    }
+
+    @Test
+    public void stopCancelsEverything() {
+        backend.start();
+        backend.setWakeUp(1000, 0, false, false);
+        backend.waitForNetwork(false);
+
+        backend.stop();
+
+        assertNull(alarmManager.getNextScheduledAlarm());
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED, enabledSetting(SyncNetworkReceiver.class));
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED, enabledSetting(SyncPowerReceiver.class));
+    }
+
+    private int enabledSetting(Class<?> receiver) {
+        return context.getPackageManager().getComponentEnabledSetting(new ComponentName(context, receiver));
+    }
+}
@@ -0,0 +1,191 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventCalculatorTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    // Zones with DST at 2:00, at midnight, of half an hour, in the southern hemisphere, with odd
+    // offsets, and one that skipped a whole day.
+    private static final String[] ZONES = {
+            "UTC", "America/New_York", "Europe/London", "Europe/Berlin", "America/Sao_Paulo",
+            "America/Santiago", "America/Havana", "Asia/Beirut", "Australia/Lord_Howe",
+            "Pacific/Chatham", "Asia/Kolkata", "Asia/Kathmandu", "Pacific/Apia"};
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        EventCalculator.onTimeZoneChanged();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+        EventCalculator.onTimeZoneChanged();
+    }
+
+    @Test
+    public void agreesWithTheCalendarThroughTheYear() {
+        long from = new GregorianCalendar(2011, 0, 1).getTimeInMillis();
+        long to = new GregorianCalendar(2019, 0, 1).getTimeInMillis();
+        Random random = new Random(42);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            // Steps that aren't a divisor of a day, so every time of day gets visited.
+            for (long time = from; time < to; time += 3 * HOUR + random.nextInt((int) HOUR)) {
+                assertAgrees(time, zone);
+            }
+        }
+    }
+
+    @Test
+    public void agreesWithTheCalendarAroundEveryTransition() {
+        long from = new GregorianCalendar(2008, 0, 1).getTimeInMillis();
+        long to = new GregorianCalendar(2020, 0, 1).getTimeInMillis();
+        long[] around = {-DAY, -HOUR - 1, -HOUR, -1, 0, 1, HOUR - 1, HOUR, 2 * HOUR, DAY - 1, DAY};
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (long transition : transitions(zone, from, to)) {
+                for (long delta : around) {
+                    assertAgrees(transition + delta, zone);
+                }
+                // Also the midnights next to it, where the cache stops and starts.
+                long midnight = EventCalculator.getPreviousMidnightSlow(transition, zone);
+                for (long time : new long[]{midnight - DAY, midnight - 1, midnight, midnight + DAY, midnight + 2 * DAY}) {
+                    assertAgrees(time - 1, zone);
+                    assertAgrees(time, zone);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void agreesWhenGoingBackInTime() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/London");
+        long time = new GregorianCalendar(2015, 5, 1).getTimeInMillis();
+        for (int i = 0; i < 400; i++) {
+            assertAgrees(time, zone);
+            time -= DAY / 2 + 17 * MINUTE;
+        }
+    }
+
+    @Test
+    public void switchingBetweenZonesDoesNotReuseTheCache() {
+        long time = new GregorianCalendar(2016, 2, 27, 12, 0).getTimeInMillis();
+        for (int i = 0; i < 100; i++) {
+            for (String id : ZONES) {
+                assertAgrees(time, TimeZone.getTimeZone(id));
+            }
+            time += 5 * HOUR;
+        }
+    }
+
+    @Test
+    public void followsTheDefaultZoneOnceToldItChanged() {
+        long time = new GregorianCalendar(2017, 9, 29, 12, 0).getTimeInMillis();
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            TimeZone.setDefault(zone);
+            EventCalculator.onTimeZoneChanged();
+            for (long t = time; t < time + 3 * DAY; t += 7 * HOUR) {
+                assertEquals(id + " at " + t, EventCalculator.getPreviousMidnightSlow(t, zone),
+                        EventCalculator.getPreviousMidnight(t, null));
+            }
+        }
+    }
+
+    @Test
+    public void explicitZoneAfterTheDefaultOne() {
+        long time = new GregorianCalendar(2017, 5, 1, 12, 0).getTimeInMillis();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+        EventCalculator.onTimeZoneChanged();
+        EventCalculator.getPreviousMidnight(time, null);
+
+        // Same offset rules by value, but not the zone the cache was made for.
+        assertAgrees(time, TimeZone.getTimeZone("America/New_York"));
+        assertEquals(EventCalculator.getPreviousMidnightSlow(time, TimeZone.getDefault()),
+                EventCalculator.getPreviousMidnight(time, null));
+    }
+
+    @Test
+    public void nextEventIsStrictlyAfterTheCurrentTime() {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        long midnight = new GregorianCalendar(2016, 4, 10).getTimeInMillis() / DAY * DAY;
+        long interval = 6 * HOUR;
+        long event = midnight + 2 * interval;
+
+        // On an event, the next one.
+        assertEquals(midnight + interval, EventCalculator.getNextEvent(midnight, interval, zone));
+        assertEquals(event + interval, EventCalculator.getNextEvent(event, interval, zone));
+        // Just before one, that one.
+        assertEquals(midnight, EventCalculator.getNextEvent(midnight - 1, interval, zone));
+        assertEquals(event, EventCalculator.getNextEvent(event - 1, interval, zone));
+        // Just after one, the next one.
+        assertEquals(midnight + interval, EventCalculator.getNextEvent(midnight + 1, interval, zone));
+        assertEquals(event + interval, EventCalculator.getNextEvent(event + 1, interval, zone));
+        // No interval, right away.
+        assertEquals(event, EventCalculator.getNextEvent(event, 0, zone));
+    }
+
+    @Test
+    public void nextEventIsTheFirstOneAfterTheCurrentTime() {
+        Random random = new Random(7);
+        long from = new GregorianCalendar(2014, 0, 1).getTimeInMillis();
+        long[] intervals = {MINUTE, 15 * MINUTE, HOUR, 5 * HOUR, DAY};
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (int i = 0; i < 2000; i++) {
+                long time = from + (random.nextLong() >>> 1) % (4 * 365 * DAY);
+                long interval = intervals[i % intervals.length];
+                long next = EventCalculator.getNextEvent(time, interval, zone);
+                long midnight = EventCalculator.getPreviousMidnightSlow(time, zone);
+                String message = id + " at " + time + " every " + interval;
+                assertEquals(message, 0, (next - midnight) % interval);
+                assertTrue(message, next > time);
+                assertTrue(message, next - interval <= time);
+            }
+        }
+    }
+
+    private static void assertAgrees(long time, TimeZone zone) {
+        assertEquals(zone.getID() + " at " + time, EventCalculator.getPreviousMidnightSlow(time, zone),
+                EventCalculator.getPreviousMidnight(time, zone));
+    }
+
+    /**
+     * Returns every instant in the range where the zone's offset changes, to the millisecond.
+     */
+    private static List<Long> transitions(TimeZone zone, long from, long to) {
+        List<Long> transitions = new ArrayList<>();
+        for (long time = from; time < to; time += HOUR) {
+            if (zone.getOffset(time) == zone.getOffset(time + HOUR)) continue;
+            long low = time;
+            long high = time + HOUR;
+            while (high - low > 1) {
+                long mid = low + (high - low) / 2;
+                if (zone.getOffset(mid) == zone.getOffset(low)) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            transitions.add(high);
+        }
+        return transitions;
+    }
+}
@@ -0,0 +1,101 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class InProcessWakeBusTest {
+    /**
+     * Stands in for another app in the same process, remembering the services it was asked to start.
+     */
+    private static class App extends ContextWrapper {
+        final String packageName;
+        final List<Intent> started = new ArrayList<>();
+
+        App(String packageName) {
+            super(RuntimeEnvironment.application);
+            this.packageName = packageName;
+        }
+
+        @Override
+        public String getPackageName() {
+            return packageName;
+        }
+
+        @Override
+        public ComponentName startService(Intent service) {
+            started.add(service);
+            return service.getComponent();
+        }
+    }
+
+    @Test
+    public void publishWakesEveryOtherApp() {
+        InProcessWakeBus bus = new InProcessWakeBus();
+        App a = new App("com.example.a");
+        App b = new App("com.example.b");
+        App c = new App("com.example.c");
+        WakeBus busA = bus.create(a);
+        bus.create(b);
+        bus.create(c);
+
+        busA.publish();
+
+        assertTrue(a.started.isEmpty());
+        assertEquals(1, b.started.size());
+        assertEquals(1, c.started.size());
+        assertTrue(SyncService.getPeerWakeIntent(b).filterEquals(b.started.get(0)));
+        assertEquals(SyncService.class.getName(), c.started.get(0).getComponent().getClassName());
+    }
+
+    @Test
+    public void recreatedServiceReplacesItsApp() {
+        InProcessWakeBus bus = new InProcessWakeBus();
+        App a = new App("com.example.a");
+        App oldB = new App("com.example.b");
+        App newB = new App("com.example.b");
+        WakeBus busA = bus.create(a);
+        bus.create(oldB);
+        bus.create(newB);
+
+        busA.publish();
+
+        assertTrue(oldB.started.isEmpty());
+        assertEquals(1, newB.started.size());
+    }
+
+    @Test
+    public void appAloneWakesNobody() {
+        InProcessWakeBus bus = new InProcessWakeBus();
+        App a = new App("com.example.a");
+        bus.create(a).publish();
+
+        assertTrue(a.started.isEmpty());
+    }
+
+    @Test
+    public void broadcastWithoutTokenHasNoSender() {
+        Context context = RuntimeEnvironment.application;
+        Intent intent = new Intent(BroadcastWakeBus.ACTION_PEER_WAKE);
+        intent.putExtra("sender", "com.example.a");
+
+        assertNull(BroadcastWakeBus.getSender(intent));
+        assertNull(BroadcastWakeBus.getSender(SyncService.getPeerWakeIntent(context)));
+    }
+}
@@ -0,0 +1,150 @@
+package com.softdive.syncmanager.lib;
+
+import android.app.AlarmManager;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class JobSchedulerBackendTest {
+    private Context context;
+    private JobScheduler jobScheduler;
+    private JobSchedulerBackend backend;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        backend = new JobSchedulerBackend(context);
+    }
+
+    @Test
+    public void wakeUpIsAJobWithTheBatchRangeAndRequirements() {
+        long delay = 60 * 60 * 1000;
+        backend.setWakeUp(System.currentTimeMillis() + delay, 10 * 60 * 1000, true, true);
+
+        JobInfo job = onlyJob();
+        assertEquals(JobSchedulerBackend.WAKE_UP_JOB_ID, job.getId());
+        assertEquals(new ComponentName(context, SyncJobService.class), job.getService());
+        // Some time passes between scheduling and reading the job back.
+        assertTrue(job.getMinLatencyMillis() <= delay && job.getMinLatencyMillis() > delay - 1000);
+        assertEquals(10 * 60 * 1000, job.getMaxExecutionDelayMillis() - job.getMinLatencyMillis());
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertTrue(job.isRequireCharging());
+        assertFalse(job.isPersisted());
+    }
+
+    @Test
+    public void wakeUpWithoutRequirementsOnlyNeedsAnyNetwork() {
+        backend.setWakeUp(System.currentTimeMillis() + 60000, 0, false, false);
+
+        JobInfo job = onlyJob();
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, job.getNetworkType());
+        assertFalse(job.isRequireCharging());
+    }
+
+    @Test
+    public void wakeUpInThePastRunsRightAway() {
+        backend.setWakeUp(System.currentTimeMillis() - 60000, 5000, false, false);
+
+        JobInfo job = onlyJob();
+        assertEquals(0, job.getMinLatencyMillis());
+        assertEquals(5000, job.getMaxExecutionDelayMillis());
+    }
+
+    @Test
+    public void wakeUpReplacesThePreviousOne() {
+        backend.setWakeUp(System.currentTimeMillis() + 60000, 0, false, false);
+        backend.setWakeUp(System.currentTimeMillis() + 60000, 0, true, false);
+
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, onlyJob().getNetworkType());
+    }
+
+    @Test
+    public void cancelWakeUpKeepsWaitingForTheNetwork() {
+        backend.setWakeUp(System.currentTimeMillis() + 60000, 0, false, false);
+        backend.waitForNetwork(false);
+
+        backend.cancelWakeUp();
+
+        assertEquals(JobSchedulerBackend.NETWORK_JOB_ID, onlyJob().getId());
+    }
+
+    @Test
+    public void waitsForTheNetworkWithAPersistedJob() {
+        backend.waitForNetwork(true);
+
+        JobInfo job = onlyJob();
+        assertEquals(JobSchedulerBackend.NETWORK_JOB_ID, job.getId());
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertTrue(job.isPersisted());
+    }
+
+    @Test
+    public void anyNetworkReplacesWaitingForAnUnmeteredOne() {
+        backend.waitForNetwork(true);
+        backend.waitForNetwork(false);
+
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, onlyJob().getNetworkType());
+    }
+
+    @Test
+    public void anyNetworkAlreadyCoversAnUnmeteredOne() {
+        backend.waitForNetwork(false);
+        backend.waitForNetwork(true);
+
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, onlyJob().getNetworkType());
+    }
+
+    @Test
+    public void startCancelsTheAlarmAndReceivers() {
+        AlarmBackend alarms = new AlarmBackend(context, new SyncPreferences(context));
+        alarms.start();
+        alarms.setWakeUp(1000, 0, false, false);
+        alarms.waitForNetwork(false);
+
+        backend.start();
+
+        assertNull(shadowOf((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).getNextScheduledAlarm());
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED, enabledSetting(SyncNetworkReceiver.class));
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED, enabledSetting(SyncPowerReceiver.class));
+    }
+
+    @Test
+    public void stopCancelsBothJobs() {
+        backend.setWakeUp(System.currentTimeMillis() + 60000, 0, false, false);
+        backend.waitForNetwork(false);
+
+        backend.stop();
+
+        assertTrue(jobScheduler.getAllPendingJobs().isEmpty());
+    }
+
+    private JobInfo onlyJob() {
+        List<JobInfo> jobs = jobScheduler.getAllPendingJobs();
+        assertEquals(1, jobs.size());
+        return jobs.get(0);
+    }
+
+    private int enabledSetting(Class<?> receiver) {
+        return context.getPackageManager().getComponentEnabledSetting(new ComponentName(context, receiver));
+    }
+}
@@ -0,0 +1,96 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MathUtilTest {
+    private static final int SEEDS = 1000000;
+    // The chi-squared value for 9 degrees of freedom that a uniform distribution exceeds with a
+    // probability of less than one in a million, so the test doesn't flake.
+    private static final double CHI_SQUARED_LIMIT = 45;
+
+    @Test
+    public void smallRangeIsUniformAndInclusive() {
+        assertUniform(0, 9);
+    }
+
+    @Test
+    public void offsetRangeIsUniformAndInclusive() {
+        assertUniform(-5, 4);
+    }
+
+    @Test
+    public void rangeWithAFewBitsRejectedIsUniform() {
+        // Just past a power of two, so nearly half of the raw values fall in the last incomplete
+        // multiple of the bound and must be rejected.
+        assertUniformBuckets(0, (1L << 62) + 1);
+    }
+
+    @Test
+    public void fullNonNegativeRangeIsUniform() {
+        assertUniformBuckets(0, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void singleValueRange() {
+        assertEquals(7, MathUtil.randomInRange(new SecureRandom().nextLong(), 7, 7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void upperBelowLowerThrows() {
+        MathUtil.randomInRange(0, 1, 0);
+    }
+
+    @Test
+    public void extremeSeedsStayInRange() {
+        long[] seeds = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long seed : seeds) {
+            long value = MathUtil.randomInRange(seed, 0, 9);
+            assertTrue(value >= 0 && value <= 9);
+        }
+    }
+
+    /**
+     * Checks that every value of a range of ten comes up about as often, including both bounds.
+     */
+    private static void assertUniform(long lower, long upper) {
+        SecureRandom random = new SecureRandom();
+        long[] counts = new long[(int) (upper - lower + 1)];
+        for (int i = 0; i < SEEDS; i++) {
+            long value = MathUtil.randomInRange(random.nextLong(), lower, upper);
+            assertTrue(value + " out of range", value >= lower && value <= upper);
+            counts[(int) (value - lower)]++;
+        }
+        assertTrue(counts[0] > 0);
+        assertTrue(counts[counts.length - 1] > 0);
+        assertChiSquared(counts);
+    }
+
+    /**
+     * Checks that values fall evenly into ten equal buckets of a range too large to count each value.
+     */
+    private static void assertUniformBuckets(long lower, long upper) {
+        SecureRandom random = new SecureRandom();
+        long bucketSize = (upper - lower) / 10 + 1;
+        long[] counts = new long[10];
+        for (int i = 0; i < SEEDS; i++) {
+            long value = MathUtil.randomInRange(random.nextLong(), lower, upper);
+            assertTrue(value + " out of range", value >= lower && value <= upper);
+            counts[(int) ((value - lower) / bucketSize)]++;
+        }
+        assertChiSquared(counts);
+    }
+
+    private static void assertChiSquared(long[] counts) {
+        double expected = (double) SEEDS / counts.length;
+        double chiSquared = 0;
+        for (long count : counts) {
+            chiSquared += (count - expected) * (count - expected) / expected;
+        }
+        assertTrue("chi-squared " + chiSquared, chiSquared < CHI_SQUARED_LIMIT);
+    }
+}
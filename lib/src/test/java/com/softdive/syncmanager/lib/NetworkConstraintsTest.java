@@ -0,0 +1,121 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkConstraintsTest {
+    private static final long NOW = 1500000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static class FakeConnectivity implements ConnectivityProvider {
+        final boolean unmetered;
+        final NetworkClass networkClass;
+
+        FakeConnectivity(boolean unmetered, NetworkClass networkClass) {
+            this.unmetered = unmetered;
+            this.networkClass = networkClass;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            return unmetered;
+        }
+
+        @Override
+        public NetworkClass getNetworkClass() {
+            return networkClass;
+        }
+    }
+
+    private static final ConnectivityProvider WIFI = new FakeConnectivity(true, NetworkClass.FAST);
+    private static final ConnectivityProvider SLOW_WIFI = new FakeConnectivity(true, NetworkClass.SLOW);
+    private static final ConnectivityProvider LTE = new FakeConnectivity(false, NetworkClass.FAST);
+    private static final ConnectivityProvider EDGE = new FakeConnectivity(false, NetworkClass.SLOW);
+
+    @Test
+    public void defaultsSyncOnAnyNetwork() {
+        SyncManager.Config config = SyncManager.Config.DEFAULT;
+
+        assertTrue(NetworkConstraints.isSatisfied(config, WIFI, NOW, NOW));
+        assertTrue(NetworkConstraints.isSatisfied(config, EDGE, NOW, NOW));
+        assertEquals(NOW, NetworkConstraints.meteredDeadline(config, EDGE, NOW));
+    }
+
+    @Test
+    public void requiresUnmeteredWaitsForTheNetworkToChange() {
+        SyncManager.Config config = config(SyncManager.Edit.requiresUnmetered(true));
+
+        assertTrue(NetworkConstraints.isSatisfied(config, WIFI, NOW, NOW));
+        assertFalse(NetworkConstraints.isSatisfied(config, LTE, NOW - 100 * HOUR, NOW));
+        assertEquals(0, NetworkConstraints.meteredDeadline(config, LTE, NOW));
+    }
+
+    @Test
+    public void tooSlowWaitsForTheNetworkToChange() {
+        SyncManager.Config config = config(SyncManager.Edit.minNetworkClass(NetworkClass.MODERATE));
+
+        assertTrue(NetworkConstraints.isSatisfied(config, LTE, NOW, NOW));
+        assertFalse(NetworkConstraints.isSatisfied(config, EDGE, NOW, NOW));
+        // Unmetered doesn't make up for being too slow.
+        assertFalse(NetworkConstraints.isSatisfied(config, SLOW_WIFI, NOW, NOW));
+        assertEquals(0, NetworkConstraints.meteredDeadline(config, EDGE, NOW));
+    }
+
+    @Test
+    public void preferUnmeteredDefersUntilTheDeadline() {
+        SyncManager.Config config = config(SyncManager.Edit.preferUnmetered(2 * HOUR));
+        long waitingSince = NOW - HOUR;
+
+        assertTrue(NetworkConstraints.isSatisfied(config, WIFI, waitingSince, NOW));
+        assertFalse(NetworkConstraints.isSatisfied(config, LTE, waitingSince, NOW));
+        assertEquals(NOW + HOUR, NetworkConstraints.meteredDeadline(config, LTE, waitingSince));
+        assertFalse(NetworkConstraints.isSatisfied(config, LTE, waitingSince, NOW + HOUR - 1));
+        assertTrue(NetworkConstraints.isSatisfied(config, LTE, waitingSince, NOW + HOUR));
+    }
+
+    @Test
+    public void preferUnmeteredDeadlineCountsFromWhenTheWaitStarted() {
+        SyncManager.Config config = config(SyncManager.Edit.preferUnmetered(2 * HOUR));
+
+        // A sync that started waiting long ago runs right away.
+        assertTrue(NetworkConstraints.isSatisfied(config, LTE, NOW - 3 * HOUR, NOW));
+        assertEquals(NOW - HOUR, NetworkConstraints.meteredDeadline(config, LTE, NOW - 3 * HOUR));
+    }
+
+    @Test
+    public void preferUnmeteredOnlyOnAFastEnoughNetwork() {
+        SyncManager.Config config = config(
+                SyncManager.Edit.preferUnmetered(HOUR),
+                SyncManager.Edit.minNetworkClass(NetworkClass.FAST));
+
+        assertFalse(NetworkConstraints.isSatisfied(config, EDGE, NOW - 2 * HOUR, NOW));
+        assertEquals(0, NetworkConstraints.meteredDeadline(config, EDGE, NOW));
+        assertEquals(NOW + HOUR, NetworkConstraints.meteredDeadline(config, LTE, NOW));
+    }
+
+    @Test
+    public void requiresUnmeteredOverridesPreferUnmetered() {
+        SyncManager.Config config = config(
+                SyncManager.Edit.preferUnmetered(HOUR),
+                SyncManager.Edit.requiresUnmetered(true));
+
+        assertFalse(NetworkConstraints.isSatisfied(config, LTE, NOW - 2 * HOUR, NOW));
+        assertEquals(0, NetworkConstraints.meteredDeadline(config, LTE, NOW));
+    }
+
+    private static SyncManager.Config config(SyncManager.Edit... edits) {
+        SyncManager.Config config = SyncManager.Config.DEFAULT;
+        for (SyncManager.Edit edit : edits) {
+            config = config.with(edit);
+        }
+        return config;
+    }
+}
@@ -0,0 +1,74 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final long SECOND = SyncManager.Config.SECONDS;
+    private static final long EVERY = SyncManager.Config.HOURS;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void fixedAlwaysWaitsTheRetryDelay() {
+        long previous = 0;
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            long delay = RetryPolicy.FIXED.retryDelay(attempt, previous, 30 * SECOND, EVERY, random);
+            assertEquals(30 * SECOND, delay);
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void fixedIsCappedByTheInterval() {
+        assertEquals(EVERY, RetryPolicy.FIXED.retryDelay(1, 0, 2 * EVERY, EVERY, random));
+        // Short intervals still allow the minimum cap.
+        assertEquals(RetryPolicy.MIN_CAP, RetryPolicy.FIXED.retryDelay(1, 0, EVERY, SECOND, random));
+    }
+
+    @Test
+    public void exponentialDoublesFromTheRetryDelay() {
+        long previous = 0;
+        long expected = 10 * SECOND;
+        for (int attempt = 1; attempt <= 20; attempt++) {
+            long delay = RetryPolicy.EXPONENTIAL.retryDelay(attempt, previous, 10 * SECOND, EVERY, random);
+            assertEquals(Math.min(EVERY, expected), delay);
+            previous = delay;
+            expected *= 2;
+        }
+    }
+
+    @Test
+    public void jitteredPoliciesStayBetweenTheRetryDelayAndTheCap() {
+        long base = 10 * SECOND;
+        long previous = 0;
+        for (int attempt = 1; attempt <= 50; attempt++) {
+            long full = RetryPolicy.FULL_JITTER.retryDelay(attempt, previous, base, EVERY, random);
+            assertTrue(full >= 0 && full <= EVERY);
+            long decorrelated = RetryPolicy.DECORRELATED_JITTER.retryDelay(attempt, previous, base, EVERY, random);
+            assertTrue(decorrelated >= base && decorrelated <= EVERY);
+            previous = decorrelated;
+        }
+    }
+
+    @Test
+    public void retryDelayIsConfigurable() {
+        assertEquals(SyncManager.Config.DEFAULT_RETRY_DELAY, SyncManager.Config.DEFAULT.retryDelay());
+        SyncManager.Config config = SyncManager.Config.DEFAULT
+                .with(SyncManager.Edit.retry(RetryPolicy.FIXED))
+                .with(SyncManager.Edit.retryDelay(2, SyncManager.Config.MINUTES));
+
+        assertEquals(2 * SyncManager.Config.MINUTES, config.retryDelay());
+        assertEquals(2 * SyncManager.Config.MINUTES,
+                config.retry().retryDelay(3, 0, config.retryDelay(), EVERY, random));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRetryDelayIsRejected() {
+        SyncManager.Edit.retryDelay(-1);
+    }
+}
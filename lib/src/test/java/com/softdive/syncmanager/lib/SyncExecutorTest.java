@@ -0,0 +1,290 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncExecutorTest {
+    private static final long TIMEOUT_SECONDS = 5;
+    // How long to give a task that shouldn't start the chance to start anyway.
+    private static final long SETTLE_MILLIS = 100;
+
+    // Stands in for the service's control thread, run by hand.
+    private final Deque<Runnable> control = new ArrayDeque<>();
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private SyncExecutor executor;
+    private SyncExecutor pool;
+    // The time the pool ages waiting tasks by.
+    private volatile long time;
+    // Lets every gate opened by the test finish.
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = new SyncExecutor(0, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                control.add(command);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void serialTasksWaitForTheirTurn() {
+        executor.execute("a", 1, Priority.NORMAL, record("a"));
+
+        assertTrue(ran.isEmpty());
+        runControl();
+        assertEquals(Arrays.asList("a"), ran);
+    }
+
+    @Test
+    public void serialRunsTheHighestPriorityFirst() {
+        executor.execute("low", 1, Priority.LOW, record("low"));
+        executor.execute("normal", 1, Priority.NORMAL, record("normal"));
+        executor.execute("high", 1, Priority.HIGH, record("high"));
+
+        runControl();
+
+        assertEquals(Arrays.asList("high", "normal", "low"), ran);
+    }
+
+    @Test
+    public void serialRequestsQueuedWhileASyncRunsCompete() {
+        executor.execute("first", 1, Priority.NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                ran.add("first");
+                // Requests handled on the control thread while the first sync runs.
+                control.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        executor.execute("low", 1, Priority.LOW, record("low"));
+                        executor.execute("high", 1, Priority.HIGH, record("high"));
+                    }
+                });
+            }
+        });
+
+        runControl();
+
+        assertEquals(Arrays.asList("first", "high", "low"), ran);
+    }
+
+    @Test
+    public void serialPrioritizeRaisesAWaitingTask() {
+        executor.execute("a", 1, Priority.NORMAL, record("a"));
+        executor.execute("b", 1, Priority.LOW, record("b"));
+        executor.prioritize("b", Priority.HIGH);
+
+        runControl();
+
+        assertEquals(Arrays.asList("b", "a"), ran);
+    }
+
+    @Test
+    public void serialKeepsGoingAfterAFailedTask() {
+        executor.execute("a", 1, Priority.HIGH, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        executor.execute("b", 1, Priority.NORMAL, record("b"));
+
+        try {
+            control.poll().run();
+        } catch (IllegalStateException expected) {
+        }
+        runControl();
+
+        assertEquals(Arrays.asList("b"), ran);
+    }
+
+    @Test
+    public void poolLimitsEachListener() throws Exception {
+        createPool(3);
+        List<CountDownLatch> started = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CountDownLatch gate = new CountDownLatch(1);
+            started.add(gate);
+            pool.execute("a", 2, Priority.NORMAL, gate("a", gate));
+        }
+
+        await(started.get(0));
+        await(started.get(1));
+        settle();
+        assertEquals(2, ran.size());
+
+        release.countDown();
+        await(started.get(2));
+    }
+
+    @Test
+    public void poolRunsUpToItsThreadsAtOnce() throws Exception {
+        createPool(2);
+        CountDownLatch a = new CountDownLatch(1);
+        CountDownLatch b = new CountDownLatch(1);
+        CountDownLatch c = new CountDownLatch(1);
+        pool.execute("a", 1, Priority.NORMAL, gate("a", a));
+        pool.execute("b", 1, Priority.NORMAL, gate("b", b));
+        pool.execute("c", 1, Priority.NORMAL, gate("c", c));
+
+        await(a);
+        await(b);
+        settle();
+        assertEquals(Arrays.asList("a", "b"), sorted(ran));
+
+        release.countDown();
+        await(c);
+    }
+
+    @Test
+    public void poolGivesHighPriorityTheExtraThread() throws Exception {
+        createPool(2);
+        CountDownLatch a = new CountDownLatch(1);
+        CountDownLatch b = new CountDownLatch(1);
+        CountDownLatch normal = new CountDownLatch(1);
+        CountDownLatch high = new CountDownLatch(1);
+        CountDownLatch secondHigh = new CountDownLatch(1);
+        pool.execute("a", 1, Priority.NORMAL, gate("a", a));
+        pool.execute("b", 1, Priority.NORMAL, gate("b", b));
+        await(a);
+        await(b);
+
+        pool.execute("normal", 1, Priority.NORMAL, gate("normal", normal));
+        pool.execute("high", 1, Priority.HIGH, gate("high", high));
+        pool.execute("secondHigh", 1, Priority.HIGH, gate("secondHigh", secondHigh));
+
+        await(high);
+        settle();
+        // Only one extra thread, and only for high priority.
+        assertEquals(Arrays.asList("a", "b", "high"), sorted(ran));
+
+        release.countDown();
+        await(normal);
+        await(secondHigh);
+    }
+
+    @Test
+    public void poolAgesWaitingTasks() throws Exception {
+        createPool(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        pool.execute("busy", 1, Priority.NORMAL, gate("busy", busy));
+        await(busy);
+
+        // Waited a step longer than the normal priority one, which makes up for the lower priority.
+        pool.execute("low", 1, Priority.LOW, record("low"));
+        time += SyncExecutor.AGING_STEP + 1;
+        pool.execute("normal", 1, Priority.NORMAL, record("normal"));
+
+        release.countDown();
+        awaitRan(3);
+        assertEquals(Arrays.asList("busy", "low", "normal"), ran);
+    }
+
+    @Test
+    public void poolRunsHigherPriorityBeforeItHasAged() throws Exception {
+        createPool(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        pool.execute("busy", 1, Priority.NORMAL, gate("busy", busy));
+        await(busy);
+
+        pool.execute("low", 1, Priority.LOW, record("low"));
+        time += SyncExecutor.AGING_STEP - 1;
+        pool.execute("normal", 1, Priority.NORMAL, record("normal"));
+
+        release.countDown();
+        awaitRan(3);
+        assertEquals(Arrays.asList("busy", "normal", "low"), ran);
+    }
+
+    private void createPool(int threads) {
+        pool = new SyncExecutor(threads, null) {
+            @Override
+            long now() {
+                return time;
+            }
+        };
+    }
+
+    /**
+     * Returns a task that records that it started and then waits for the test to release it.
+     */
+    private Runnable gate(final String name, final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private void awaitRan(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (ran.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, ran.size());
+    }
+
+    private static void settle() throws InterruptedException {
+        Thread.sleep(SETTLE_MILLIS);
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> copy;
+        synchronized (names) {
+            copy = new ArrayList<>(names);
+        }
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    private void runControl() {
+        Runnable next;
+        while ((next = control.poll()) != null) {
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncMetricsTest {
+    @Test
+    public void bucketsDoubleInWidth() {
+        assertEquals(0, SyncMetrics.bucket(-5));
+        assertEquals(0, SyncMetrics.bucket(0));
+        assertEquals(1, SyncMetrics.bucket(1));
+        assertEquals(2, SyncMetrics.bucket(2));
+        assertEquals(2, SyncMetrics.bucket(3));
+        assertEquals(3, SyncMetrics.bucket(4));
+        assertEquals(10, SyncMetrics.bucket(1023));
+        assertEquals(11, SyncMetrics.bucket(1024));
+        assertEquals(SyncMetrics.BUCKETS - 1, SyncMetrics.bucket(1L << 30));
+        assertEquals(SyncMetrics.BUCKETS - 1, SyncMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void upperBoundsMatchTheBuckets() {
+        for (int bucket = 0; bucket < SyncMetrics.BUCKETS - 1; bucket++) {
+            long upper = SyncMetrics.bucketUpperBound(bucket);
+            assertEquals(bucket, SyncMetrics.bucket(upper));
+            assertEquals(bucket + 1, SyncMetrics.bucket(upper + 1));
+        }
+        assertEquals(Long.MAX_VALUE, SyncMetrics.bucketUpperBound(SyncMetrics.BUCKETS - 1));
+    }
+
+    @Test
+    public void countsSyncsByResult() {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.recordSync(0, SyncResult.success());
+        metrics.recordSync(5, SyncResult.unchanged());
+        metrics.recordSync(5, SyncResult.failure());
+        metrics.recordSync(2000, SyncResult.retryAfter(1000));
+        metrics.recordTimeout();
+
+        SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.successes());
+        assertEquals(1, snapshot.unchanged());
+        assertEquals(1, snapshot.failures());
+        assertEquals(1, snapshot.throttled());
+        assertEquals(1, snapshot.timeouts());
+        long[] latency = snapshot.latencyHistogram();
+        assertEquals(1, latency[0]);
+        assertEquals(2, latency[3]);
+        assertEquals(1, latency[11]);
+    }
+
+    @Test
+    public void countersAddUpAcrossThreads() throws InterruptedException {
+        final SyncMetrics metrics = new SyncMetrics();
+        final int threads = 8;
+        final int syncs = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < syncs; j++) {
+                        metrics.recordSync(j % 4, j % 2 == 0 ? SyncResult.success() : SyncResult.failure());
+                        metrics.recordDrift(100);
+                        metrics.recordMerged();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        SyncMetrics.Snapshot snapshot = metrics.snapshot();
+        long total = (long) threads * syncs;
+        assertEquals(total / 2, snapshot.successes());
+        assertEquals(total / 2, snapshot.failures());
+        assertEquals(total, snapshot.merged());
+        assertEquals(total, snapshot.driftHistogram()[SyncMetrics.bucket(100)]);
+        long[] latency = snapshot.latencyHistogram();
+        assertEquals(total / 4, latency[0]);
+        assertEquals(total / 4, latency[1]);
+        assertEquals(total / 2, latency[2]);
+    }
+
+    @Test
+    public void snapshotsDoNotChangeAfterwards() {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.recordSync(1, SyncResult.success());
+        metrics.recordRetry(2, 4000);
+        SyncMetrics.Snapshot before = metrics.snapshot();
+
+        metrics.recordSync(1, SyncResult.success());
+        metrics.resetBackoff();
+        before.latencyHistogram()[1] = 100;
+
+        assertEquals(1, before.successes());
+        assertEquals(1, before.latencyHistogram()[1]);
+        assertEquals(2, before.backoffLevel());
+        assertEquals(4000, before.backoff());
+        SyncMetrics.Snapshot after = metrics.snapshot();
+        assertEquals(2, after.successes());
+        assertEquals(1, after.retries());
+        assertEquals(0, after.backoffLevel());
+        assertEquals(0, after.backoff());
+    }
+
+    @Test
+    public void dirtyIsTakenOncePerChange() {
+        SyncMetrics metrics = new SyncMetrics();
+        assertFalse(metrics.takeDirty());
+
+        metrics.recordWakeUp();
+        metrics.recordNoNetwork();
+        assertTrue(metrics.takeDirty());
+        assertFalse(metrics.takeDirty());
+
+        // Resetting a backoff that's already reset isn't a change.
+        metrics.resetBackoff();
+        assertFalse(metrics.takeDirty());
+        metrics.recordRetry(1, 500);
+        metrics.takeDirty();
+        metrics.resetBackoff();
+        assertTrue(metrics.takeDirty());
+    }
+}
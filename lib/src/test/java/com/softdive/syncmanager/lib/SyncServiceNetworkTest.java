@@ -0,0 +1,146 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class SyncServiceNetworkTest {
+    // Every test has its own listeners, the trace and state file outlive a test.
+    private static final String WIFI_ONLY = "com.example.WifiOnlySync";
+    private static final String PREFERS_WIFI = "com.example.PrefersWifiSync";
+    private static final String FAST_ONLY = "com.example.FastOnlySync";
+    private static final String ANY = "com.example.AnySync";
+    private static final long PREFER_UNMETERED = 300;
+
+    private static class FakeConnectivity implements ConnectivityProvider {
+        volatile boolean connected = true;
+        volatile boolean unmetered;
+        volatile NetworkClass networkClass = NetworkClass.FAST;
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            return unmetered;
+        }
+
+        @Override
+        public NetworkClass getNetworkClass() {
+            return networkClass;
+        }
+    }
+
+    private final FakeConnectivity network = new FakeConnectivity();
+    private final TestRegistry registry = new TestRegistry()
+            .add(WIFI_ONLY, SyncManager.Edit.every(1, SyncManager.Config.DAYS), SyncManager.Edit.requiresUnmetered(true))
+            .add(PREFERS_WIFI, SyncManager.Edit.every(1, SyncManager.Config.DAYS), SyncManager.Edit.preferUnmetered(PREFER_UNMETERED))
+            .add(FAST_ONLY, SyncManager.Edit.every(1, SyncManager.Config.DAYS), SyncManager.Edit.minNetworkClass(NetworkClass.MODERATE))
+            .add(ANY, SyncManager.Edit.every(1, SyncManager.Config.DAYS));
+    private ServiceController<SyncService> controller;
+    private SyncService service;
+    private int startId;
+
+    @Before
+    public void setUp() {
+        SyncService.setConnectivityFactory(new ConnectivityProvider.Factory() {
+            @Override
+            public ConnectivityProvider create(Context context) {
+                return network;
+            }
+        });
+        SyncParser.setRegistryFactory(registry.factory());
+        controller = Robolectric.buildService(SyncService.class).create();
+        service = controller.get();
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+        SyncService.setConnectivityFactory(null);
+        SyncParser.setRegistryFactory(null);
+    }
+
+    @Test
+    public void requiresUnmeteredWaitsForUnmeteredNetwork() throws Exception {
+        sync(WIFI_ONLY);
+        TestRegistry.awaitTrace(SyncTrace.Event.DEFERRED, WIFI_ONLY);
+        assertEquals(0, registry.syncs(WIFI_ONLY));
+
+        network.unmetered = true;
+        send(SyncService.getNetworkBackIntent(service));
+
+        registry.awaitSyncs(WIFI_ONLY, 1);
+    }
+
+    @Test
+    public void preferUnmeteredRunsOnMeteredAtTheDeadline() throws Exception {
+        long before = System.currentTimeMillis();
+        sync(PREFERS_WIFI);
+        TestRegistry.awaitTrace(SyncTrace.Event.DEFERRED, PREFERS_WIFI);
+        long after = System.currentTimeMillis();
+        assertEquals(0, registry.syncs(PREFERS_WIFI));
+
+        // Rescheduled for when it's waited long enough.
+        long deadline = new SyncPreferences(service).getNextSyncTime(PREFERS_WIFI);
+        assertTrue(deadline >= before + PREFER_UNMETERED);
+        assertTrue(deadline <= after + PREFER_UNMETERED);
+
+        // Still on the same metered network when the wake-up for it comes.
+        Thread.sleep(Math.max(0, deadline - System.currentTimeMillis()) + 10);
+        send(SyncService.getSyncBatchIntent(service));
+
+        registry.awaitSyncs(PREFERS_WIFI, 1);
+    }
+
+    @Test
+    public void tooSlowWaitsForFasterNetwork() throws Exception {
+        network.unmetered = true;
+        network.networkClass = NetworkClass.SLOW;
+        sync(FAST_ONLY);
+        TestRegistry.awaitTrace(SyncTrace.Event.DEFERRED, FAST_ONLY);
+        assertEquals(0, registry.syncs(FAST_ONLY));
+
+        network.unmetered = false;
+        network.networkClass = NetworkClass.FAST;
+        send(SyncService.getNetworkBackIntent(service));
+
+        registry.awaitSyncs(FAST_ONLY, 1);
+    }
+
+    @Test
+    public void offlineSyncRunsWhenNetworkIsBack() throws Exception {
+        network.connected = false;
+        sync(ANY);
+        TestRegistry.awaitTrace(SyncTrace.Event.NETWORK_LOST, ANY);
+        assertEquals(0, registry.syncs(ANY));
+
+        network.connected = true;
+        send(SyncService.getNetworkBackIntent(service));
+
+        registry.awaitSyncs(ANY, 1);
+    }
+
+    private void sync(String name) {
+        send(SyncService.getSyncIntent(service, name, Priority.NORMAL));
+    }
+
+    private void send(Intent intent) {
+        service.onStartCommand(intent, 0, ++startId);
+    }
+}
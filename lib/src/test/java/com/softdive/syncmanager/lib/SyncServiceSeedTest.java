@@ -0,0 +1,66 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class SyncServiceSeedTest {
+    private SharedPreferences prefs;
+    private SyncPreferences syncPrefs;
+
+    @Before
+    public void setUp() {
+        prefs = RuntimeEnvironment.application.getSharedPreferences("seed-test", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        syncPrefs = new SyncPreferences(prefs, null);
+    }
+
+    @Test
+    public void createsASeedOnFirstUse() {
+        long seed = SyncService.findOrCreateSeed(syncPrefs);
+
+        assertNotEquals(0, seed);
+        assertNotEquals(SyncService.LEGACY_SEED, seed);
+        assertEquals(seed, syncPrefs.getSeed());
+    }
+
+    @Test
+    public void keepsAnExistingSeed() {
+        syncPrefs.setSeed(12345);
+
+        assertEquals(12345, SyncService.findOrCreateSeed(syncPrefs));
+        assertEquals(12345, syncPrefs.getSeed());
+    }
+
+    @Test
+    public void replacesTheLegacySeed() {
+        syncPrefs.setSeed(SyncService.LEGACY_SEED);
+
+        long seed = SyncService.findOrCreateSeed(syncPrefs);
+
+        assertNotEquals(0, seed);
+        assertNotEquals(SyncService.LEGACY_SEED, seed);
+        assertEquals(seed, syncPrefs.getSeed());
+        // Once replaced, it sticks.
+        assertEquals(seed, SyncService.findOrCreateSeed(syncPrefs));
+    }
+
+    @Test
+    public void seedsDifferPerInstall() {
+        long first = SyncService.findOrCreateSeed(syncPrefs);
+        prefs.edit().clear().commit();
+
+        assertNotEquals(first, SyncService.findOrCreateSeed(syncPrefs));
+    }
+}
@@ -0,0 +1,80 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class SyncServiceTimeoutTest {
+    private static final String HANGS_ON_CREATE = "com.example.HangsOnCreateSync";
+    private static final String OTHER = "com.example.OtherSync";
+
+    private final TestRegistry registry = new TestRegistry() {
+        @Override
+        SyncManager create(String name) throws IllegalArgumentException {
+            if (!HANGS_ON_CREATE.equals(name)) return super.create(name);
+            return new SyncManager() {
+                @Override
+                protected void onCreate(Context context) {
+                    super.onCreate(context);
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+
+                @Override
+                public void onSync(Context context) {
+                    synced.countDown();
+                }
+            };
+        }
+    }
+            .add(HANGS_ON_CREATE, SyncManager.Edit.every(1, SyncManager.Config.DAYS), SyncManager.Edit.timeout(100))
+            .add(OTHER, SyncManager.Edit.every(1, SyncManager.Config.DAYS));
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private final CountDownLatch synced = new CountDownLatch(1);
+    private ServiceController<SyncService> controller;
+    private SyncService service;
+
+    @Before
+    public void setUp() {
+        SyncParser.setRegistryFactory(registry.factory());
+        controller = Robolectric.buildService(SyncService.class).create();
+        service = controller.get();
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+        SyncParser.setRegistryFactory(null);
+    }
+
+    @Test
+    public void listenerCreationTimesOut() throws Exception {
+        service.onStartCommand(SyncService.getSyncIntent(service, HANGS_ON_CREATE, Priority.NORMAL), 0, 1);
+
+        TestRegistry.awaitTrace(SyncTrace.Event.TIMEOUT, HANGS_ON_CREATE);
+        TestRegistry.awaitTrace(SyncTrace.Event.SYNC_END, HANGS_ON_CREATE);
+        assertEquals(0, interrupted.getCount());
+        // The sync bailed out before it started.
+        assertEquals(1, synced.getCount());
+
+        // The thread it held is free again.
+        service.onStartCommand(SyncService.getSyncIntent(service, OTHER, Priority.NORMAL), 0, 2);
+        registry.awaitSyncs(OTHER, 1);
+    }
+}
@@ -0,0 +1,151 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class SyncServiceWakeBusTest {
+    private static final long PEER_WINDOW = 10 * SyncManager.Config.MINUTES;
+    private static final long EVERY = SyncManager.Config.DAYS;
+
+    /**
+     * The service of another app in the same process. Its package name is taken from its class, and
+     * wake-ups sent to it by the bus are handled right away.
+     */
+    public abstract static class AppService extends SyncService {
+        private int startId;
+
+        @Override
+        public String getPackageName() {
+            return "com.example." + getClass().getSimpleName().toLowerCase(Locale.US);
+        }
+
+        @Override
+        public ComponentName startService(Intent service) {
+            onStartCommand(service, 0, ++startId);
+            return service.getComponent();
+        }
+    }
+
+    public static class A extends AppService {
+    }
+
+    public static class B extends AppService {
+    }
+
+    public static class C extends AppService {
+    }
+
+    private final Map<String, TestRegistry> registries = new HashMap<>();
+    private final List<ServiceController<? extends AppService>> controllers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        SyncService.setWakeBusFactory(new InProcessWakeBus());
+        SyncParser.setRegistryFactory(new SyncRegistry.Factory() {
+            @Override
+            public SyncRegistry create(Context context) {
+                return registries.get(context.getPackageName());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        for (ServiceController<? extends AppService> controller : controllers) {
+            controller.destroy();
+        }
+        SyncService.setWakeBusFactory(null);
+        SyncParser.setRegistryFactory(null);
+    }
+
+    @Test
+    public void peersRunWhatIsDueWithinTheWindow() throws Exception {
+        long now = System.currentTimeMillis();
+        TestRegistry a = app("com.example.a", PEER_WINDOW);
+        TestRegistry b = app("com.example.b", PEER_WINDOW);
+        TestRegistry c = app("com.example.c", PEER_WINDOW);
+        due(a, "com.example.a.DueSync", now - SyncManager.Config.SECONDS);
+        due(b, "com.example.b.SoonSync", now + PEER_WINDOW / 2);
+        due(b, "com.example.b.LaterSync", now + 2 * PEER_WINDOW);
+        due(c, "com.example.c.SoonSync", now + SyncManager.Config.MINUTES);
+        AppService serviceA = start(A.class);
+        start(B.class);
+        start(C.class);
+
+        serviceA.onStartCommand(SyncService.getSyncBatchIntent(serviceA), 0, 1);
+
+        a.awaitSyncs("com.example.a.DueSync", 1);
+        b.awaitSyncs("com.example.b.SoonSync", 1);
+        c.awaitSyncs("com.example.c.SoonSync", 1);
+        // The peer wake-ups aren't passed on, so nothing runs twice.
+        assertEquals(1, a.syncs("com.example.a.DueSync"));
+        assertEquals(0, b.syncs("com.example.b.LaterSync"));
+    }
+
+    @Test
+    public void appsWithoutPeerWindowDoNotShare() throws Exception {
+        long now = System.currentTimeMillis();
+        TestRegistry a = app("com.example.a", 0);
+        TestRegistry b = app("com.example.b", PEER_WINDOW);
+        due(a, "com.example.a.AloneSync", now - SyncManager.Config.SECONDS);
+        due(b, "com.example.b.WaitingSync", now + SyncManager.Config.MINUTES);
+        a.add("com.example.a.Marker");
+        b.add("com.example.b.Marker");
+        AppService serviceA = start(A.class);
+        AppService serviceB = start(B.class);
+
+        serviceA.onStartCommand(SyncService.getSyncBatchIntent(serviceA), 0, 1);
+        a.awaitSyncs("com.example.a.AloneSync", 1);
+        // Intents are handled in order, so once the markers synced anything A published has been
+        // handled by B too.
+        serviceA.onStartCommand(SyncService.getSyncIntent(serviceA, "com.example.a.Marker", Priority.NORMAL), 0, 2);
+        a.awaitSyncs("com.example.a.Marker", 1);
+        serviceB.onStartCommand(SyncService.getSyncIntent(serviceB, "com.example.b.Marker", Priority.NORMAL), 0, 1);
+        b.awaitSyncs("com.example.b.Marker", 1);
+
+        assertEquals(0, b.syncs("com.example.b.WaitingSync"));
+    }
+
+    private TestRegistry app(String packageName, long peerWindow) {
+        TestRegistry registry = new TestRegistry();
+        registry.settings.peerWindow = peerWindow;
+        registries.put(packageName, registry);
+        return registry;
+    }
+
+    /**
+     * Declares a listener whose next sync was scheduled for the given time before its app's service
+     * was created.
+     */
+    private void due(TestRegistry registry, String name, long time) {
+        registry.add(name, SyncManager.Edit.every(EVERY));
+        new SyncPreferences(RuntimeEnvironment.application).setNextSyncTime(name, time);
+    }
+
+    private <T extends AppService> T start(Class<T> app) {
+        ServiceController<T> controller = Robolectric.buildService(app).create();
+        controllers.add(controller);
+        return controller.get();
+    }
+}
@@ -0,0 +1,280 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class SyncStateFileTest {
+    private static final String NAME = "com.example.NewsSync";
+
+    private File file;
+    private SharedPreferences prefs;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        file = new File(context.getFilesDir(), "state-test");
+        file.delete();
+        prefs = context.getSharedPreferences("state-test", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+    }
+
+    @Test
+    public void migratesTheLegacyPreferences() throws IOException {
+        prefs.edit()
+                .putLong(NAME + "next_sync_time", 1500000000000L)
+                .putLong(NAME + "last_failed_time_span", 60000)
+                .putInt(NAME + "consecutive_failures", 3)
+                .putLong(NAME + "circuit_opened_at", 1400000000000L)
+                .putString(NAME + "cursor", "page-7")
+                .putLong("seed", 42)
+                .commit();
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertEquals(1500000000000L, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        assertEquals(60000, state.get(NAME, SyncStateFile.LAST_FAILED_TIME_SPAN));
+        assertEquals(3, state.get(NAME, SyncStateFile.CONSECUTIVE_FAILURES));
+        assertEquals(1400000000000L, state.get(NAME, SyncStateFile.CIRCUIT_OPENED_AT));
+        assertEquals("page-7", state.getCursor(NAME));
+        // Only what moved to the file is removed.
+        assertEquals(1, prefs.getAll().size());
+        assertEquals(42, prefs.getLong("seed", 0));
+        assertTrue(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void migrationKeepsCursorsTooLongForTheFile() throws IOException {
+        String cursor = longCursor();
+        prefs.edit().putString(NAME + "cursor", cursor).commit();
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertNull(state.getCursor(NAME));
+        assertEquals(cursor, prefs.getString(NAME + "cursor", null));
+        assertEquals(cursor, new SyncPreferences(prefs, state).getCursor(NAME));
+    }
+
+    @Test
+    public void migrationLeftHalfwayStartsOver() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        assertTrue(temp.createNewFile());
+        prefs.edit().putLong(NAME + "next_sync_time", 1000).commit();
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertEquals(1000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void absorbsStateSavedInThePreferencesWhileTheFileWasUnavailable() throws IOException {
+        SyncStateFile.open(file, prefs).set(NAME, SyncStateFile.NEXT_SYNC_TIME, 1000);
+        new SyncPreferences(prefs, null).setNextSyncTime(NAME, 2000);
+        new SyncPreferences(prefs, null).setLastSuccessTime(NAME, 3000);
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertEquals(2000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        assertEquals(3000, state.get(NAME, SyncStateFile.LAST_SUCCESS_TIME));
+        assertTrue(prefs.getAll().isEmpty());
+    }
+
+    @Test
+    public void upgradesVersion1Files() throws IOException {
+        // Version 1 records are the hash, then two copies of a sequence number, four fields and a
+        // checksum. The second copy of the first record is newer.
+        ByteBuffer old = ByteBuffer.allocate(8 + 2 * 104);
+        old.putInt(0, 0x53594e53).putInt(4, 1);
+        old.putLong(8, hash(NAME));
+        putVersion1Copy(old, 16, 1, 1000, 0, 0, 0);
+        putVersion1Copy(old, 64, 2, 2000, 60000, 3, 1400000000000L);
+        old.putLong(112, hash(NAME + 2));
+        putVersion1Copy(old, 120, 1, 5000, 0, 0, 0);
+        write(old);
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertEquals(2000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        assertEquals(60000, state.get(NAME, SyncStateFile.LAST_FAILED_TIME_SPAN));
+        assertEquals(3, state.get(NAME, SyncStateFile.CONSECUTIVE_FAILURES));
+        assertEquals(1400000000000L, state.get(NAME, SyncStateFile.CIRCUIT_OPENED_AT));
+        assertEquals(0, state.get(NAME, SyncStateFile.LAST_SUCCESS_TIME));
+        assertNull(state.getCursor(NAME));
+        assertEquals(5000, state.get(NAME + 2, SyncStateFile.NEXT_SYNC_TIME));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // The upgraded file is in the current format.
+        state.setCursor(NAME, "page-1");
+        SyncStateFile reopened = SyncStateFile.open(file, prefs);
+        assertEquals(2000, reopened.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        assertEquals("page-1", reopened.getCursor(NAME));
+    }
+
+    @Test
+    public void leavesFilesFromNewerVersionsAlone() throws IOException {
+        ByteBuffer newer = ByteBuffer.allocate(64);
+        newer.putInt(0, 0x53594e53).putInt(4, 99).putLong(8, 1234);
+        write(newer);
+
+        try {
+            SyncStateFile.open(file, prefs);
+            fail("opened a newer version");
+        } catch (IOException expected) {
+        }
+        assertEquals(64, file.length());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(0x53594e53, raf.readInt());
+            assertEquals(99, raf.readInt());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void unreadableFilesStartOver() throws IOException {
+        write(ByteBuffer.wrap("not a state file".getBytes("UTF-8")));
+        prefs.edit().putLong(NAME + "next_sync_time", 1000).commit();
+
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+
+        assertEquals(1000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+        state.set(NAME, SyncStateFile.NEXT_SYNC_TIME, 2000);
+        assertEquals(2000, SyncStateFile.open(file, prefs).get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+    }
+
+    @Test
+    public void stateSurvivesReopening() throws IOException {
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+        state.set(NAME, SyncStateFile.LAST_SUCCESS_TIME, 1234);
+        state.set(NAME, SyncStateFile.LAST_FAILURE_TIME, 5678);
+        state.set(NAME, SyncStateFile.CONSECUTIVE_FAILURES, 2);
+        assertTrue(state.setCursor(NAME, "caf\u00e9"));
+
+        SyncStateFile reopened = SyncStateFile.open(file, prefs);
+
+        assertEquals(1234, reopened.get(NAME, SyncStateFile.LAST_SUCCESS_TIME));
+        assertEquals(5678, reopened.get(NAME, SyncStateFile.LAST_FAILURE_TIME));
+        assertEquals(2, reopened.get(NAME, SyncStateFile.CONSECUTIVE_FAILURES));
+        assertEquals("caf\u00e9", reopened.getCursor(NAME));
+    }
+
+    @Test
+    public void cursorUpdatesKeepTheFields() throws IOException {
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+        state.set(NAME, SyncStateFile.NEXT_SYNC_TIME, 1000);
+        state.setCursor(NAME, "a much longer first cursor");
+        state.setCursor(NAME, "short");
+        state.set(NAME, SyncStateFile.NEXT_SYNC_TIME, 2000);
+
+        assertEquals("short", state.getCursor(NAME));
+        assertEquals(2000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+
+        assertTrue(state.setCursor(NAME, null));
+        assertNull(state.getCursor(NAME));
+        assertEquals(2000, state.get(NAME, SyncStateFile.NEXT_SYNC_TIME));
+    }
+
+    @Test
+    public void growsPastTheInitialRecords() throws IOException {
+        SyncStateFile state = SyncStateFile.open(file, prefs);
+        for (int i = 0; i < 100; i++) {
+            state.set(NAME + i, SyncStateFile.NEXT_SYNC_TIME, i + 1);
+        }
+
+        SyncStateFile reopened = SyncStateFile.open(file, prefs);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, reopened.get(NAME + i, SyncStateFile.NEXT_SYNC_TIME));
+        }
+    }
+
+    @Test
+    public void preferencesMoveLongCursorsOutOfTheFile() throws IOException {
+        SyncPreferences syncPrefs = new SyncPreferences(prefs, SyncStateFile.open(file, prefs));
+        syncPrefs.setCursor(NAME, "short");
+        assertFalse(prefs.contains(NAME + "cursor"));
+
+        String cursor = longCursor();
+        syncPrefs.setCursor(NAME, cursor);
+        assertEquals(cursor, syncPrefs.getCursor(NAME));
+
+        syncPrefs.setCursor(NAME, "short again");
+        assertEquals("short again", syncPrefs.getCursor(NAME));
+        assertFalse(prefs.contains(NAME + "cursor"));
+
+        syncPrefs.setCursor(NAME, null);
+        assertNull(syncPrefs.getCursor(NAME));
+    }
+
+    @Test
+    public void preferencesWithoutTheFileKeepEverythingInPreferences() {
+        SyncPreferences syncPrefs = new SyncPreferences(prefs, null);
+        syncPrefs.setCursor(NAME, "page-2");
+        syncPrefs.setNextSyncTime(NAME, 1000);
+        syncPrefs.setConsecutiveFailures(NAME, 4);
+
+        assertEquals(1000, syncPrefs.getNextSyncTime(NAME));
+        assertEquals(4, syncPrefs.getConsecutiveFailures(NAME));
+        assertEquals("page-2", syncPrefs.getCursor(NAME));
+        assertFalse(file.exists());
+    }
+
+    private void write(ByteBuffer contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void putVersion1Copy(ByteBuffer buffer, int copy, long sequence, long... fields) {
+        buffer.putLong(copy, sequence);
+        for (int i = 0; i < fields.length; i++) {
+            buffer.putLong(copy + 8 + i * 8, fields[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), copy, 40);
+        buffer.putInt(copy + 40, (int) crc.getValue());
+    }
+
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String longCursor() {
+        StringBuilder cursor = new StringBuilder();
+        while (cursor.length() <= SyncStateFile.CURSOR_SIZE) {
+            cursor.append("0123456789");
+        }
+        return cursor.toString();
+    }
+}
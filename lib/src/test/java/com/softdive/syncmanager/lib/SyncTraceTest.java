@@ -0,0 +1,96 @@
+package com.softdive.syncmanager.lib;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncTraceTest {
+    @Test
+    public void dumpsEverythingBeforeItIsFull() {
+        SyncTrace trace = new SyncTrace(8);
+        trace.record(SyncTrace.Event.SERVICE_START, null, 0);
+        trace.record(SyncTrace.Event.SYNC_START, "com.example.NewsSync", 0);
+        trace.record(SyncTrace.Event.RETRY, "com.example.NewsSync", 500);
+
+        List<String> lines = dump(trace);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).endsWith(" SERVICE_START"));
+        assertTrue(lines.get(1).endsWith(" SYNC_START com.example.NewsSync"));
+        assertTrue(lines.get(2).endsWith(" RETRY com.example.NewsSync 500"));
+    }
+
+    @Test
+    public void keepsTheNewestEventsOldestFirstOnceItWraps() {
+        SyncTrace trace = new SyncTrace(4);
+        for (int i = 1; i <= 10; i++) {
+            trace.record(SyncTrace.Event.SCHEDULED, "com.example.NewsSync", i);
+        }
+
+        List<String> lines = dump(trace);
+
+        assertEquals(4, lines.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(7 + i, value(lines.get(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBeAPowerOfTwo() {
+        new SyncTrace(100);
+    }
+
+    @Test
+    public void dumpsWhileEventsAreRecorded() throws InterruptedException {
+        final SyncTrace trace = new SyncTrace(16);
+        final int events = 200000;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= events; i++) {
+                    trace.record(SyncTrace.Event.SCHEDULED, "sync-" + i, i);
+                }
+            }
+        };
+        writer.start();
+
+        int dumps = 0;
+        while (writer.isAlive() || dumps == 0) {
+            long previous = 0;
+            for (String line : dump(trace)) {
+                String[] fields = line.split(" ");
+                long value = Long.parseLong(fields[4]);
+                // A slot overwritten while it was read would mix two events.
+                assertEquals("sync-" + value, fields[3]);
+                assertTrue(value > previous);
+                previous = value;
+            }
+            dumps++;
+        }
+        writer.join();
+
+        List<String> lines = dump(trace);
+        assertEquals(16, lines.size());
+        assertEquals(events, value(lines.get(15)));
+    }
+
+    private static List<String> dump(SyncTrace trace) {
+        StringWriter out = new StringWriter();
+        trace.dump(new PrintWriter(out));
+        List<String> lines = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            if (!line.isEmpty()) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static long value(String line) {
+        return Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+    }
+}
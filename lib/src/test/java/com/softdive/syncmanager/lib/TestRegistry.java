@@ -0,0 +1,103 @@
+package com.softdive.syncmanager.lib;
+
+import android.content.Context;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Listeners that count their syncs, for running a {@link SyncService} in tests.
+ */
+class TestRegistry extends SyncRegistry {
+    private static final long TIMEOUT = 5000;
+
+    final SyncSettings settings = new SyncSettings();
+    private final List<ListenerSpec> listeners = new ArrayList<>();
+    private final Map<String, AtomicInteger> syncs = new ConcurrentHashMap<>();
+
+    TestRegistry add(String name, SyncManager.Edit... defaults) {
+        listeners.add(new ListenerSpec(name, true, Arrays.asList(defaults)));
+        syncs.put(name, new AtomicInteger());
+        return this;
+    }
+
+    /**
+     * Returns a factory that always hands out this registry.
+     */
+    SyncRegistry.Factory factory() {
+        return new SyncRegistry.Factory() {
+            @Override
+            public SyncRegistry create(Context context) {
+                return TestRegistry.this;
+            }
+        };
+    }
+
+    int syncs(String name) {
+        return syncs.get(name).get();
+    }
+
+    /**
+     * Waits until the listener has synced the given number of times.
+     */
+    void awaitSyncs(String name, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (syncs(name) < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(name + " synced " + syncs(name) + " times, expected " + count);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits until the event is traced for the listener.
+     */
+    static void awaitTrace(SyncTrace.Event event, String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        String line = " " + event + " " + name;
+        while (true) {
+            StringWriter trace = new StringWriter();
+            SyncTrace.get().dump(new PrintWriter(trace));
+            for (String traced : trace.toString().split("\n")) {
+                if (traced.endsWith(line) || traced.contains(line + " ")) return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail(event + " was never traced for " + name);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    SyncSettings settings() {
+        return settings;
+    }
+
+    @Override
+    List<ListenerSpec> listeners() {
+        return listeners;
+    }
+
+    @Override
+    SyncManager create(String name) throws IllegalArgumentException {
+        final AtomicInteger count = syncs.get(name);
+        if (count == null) {
+            throw new IllegalArgumentException("Invalid SyncManager {" + name + "}");
+        }
+        return new SyncManager() {
+            @Override
+            public void onSync(Context context) {
+                count.incrementAndGet();
+            }
+        };
+    }
+}